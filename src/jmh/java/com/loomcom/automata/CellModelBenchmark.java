@@ -0,0 +1,99 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time <tt>CellModel.transform()</tt>, with and without cell ages, one
+ * generation per call.  Left to run, a soup settles into still lifes and
+ * oscillators whose tiles are skipped, so the score would depend on how
+ * long an iteration lasts.  Instead the soup is put back, untimed, every
+ * <tt>SOUP_GENERATIONS</tt> calls and at the start of every iteration,
+ * so every call times one of the same busy early generations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CellModelBenchmark {
+    @Param({"128", "512", "2048"})
+    public int size;
+
+    @Param({"0.1", "0.5"})
+    public double density;
+
+    @Param({"B3/S23", "B36/S23", "B2/S"})
+    public String rule;
+
+    @Param({"false", "true"})
+    public boolean ages;
+
+    @Param({"1"})
+    public int threads;
+
+    /** Generations run from each soup before it's put back. */
+    private static final int SOUP_GENERATIONS = 100;
+
+    private CellModel mModel;
+    private int mGenerations;       // Generations run since the soup was put back
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mModel = new CellModel(size, size, RuleSet.parse(rule));
+        mModel.setAgeTracking(ages);
+        mModel.setParallelism(threads);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetSoup() {
+        mModel.randomize(density, Fields.SEED);
+        mGenerations = 0;
+    }
+
+    @Setup(Level.Invocation)
+    public void keepBusy() {
+        if (mGenerations == SOUP_GENERATIONS) {
+            resetSoup();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mModel.setParallelism(1);
+    }
+
+    @Benchmark
+    public CellModel transform() {
+        mModel.transform();
+        mGenerations++;
+        return mModel;
+    }
+}
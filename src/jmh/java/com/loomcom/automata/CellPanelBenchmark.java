@@ -0,0 +1,132 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+import javafx.embed.swing.JFXPanel;
+import javafx.scene.canvas.GraphicsContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time the cell loop of <tt>CellPanel.paint()</tt>.  The panel isn't in a
+ * scene, so its canvas may be drawn on from the benchmark thread; this
+ * measures bringing the panel's image up to date and queueing it, not
+ * getting it on screen.  With <tt>redrawAll</tt> every cell is drawn
+ * again; without it, only the cells changed by one generation are.  That
+ * generation is computed before each call, untimed, so only the drawing
+ * is measured; and as with <tt>CellModelBenchmark</tt>, the soup is put
+ * back every <tt>SOUP_GENERATIONS</tt> generations so it doesn't settle.
+ * Starting the toolkit needs a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CellPanelBenchmark {
+    @Param({"128", "512"})
+    public int size;
+
+    @Param({"0.1", "0.5"})
+    public double density;
+
+    @Param({"B3/S23"})
+    public String rule;
+
+    @Param({"false", "true"})
+    public boolean aging;
+
+    @Param({"4"})
+    public int cellSize;
+
+    @Param({"true", "false"})
+    public boolean redrawAll;
+
+    /** Generations run from the soup before it's put back. */
+    private static final int SOUP_GENERATIONS = 100;
+
+    private CellModel mModel;
+    private CellPanel mPanel;
+    private GraphicsContext mGraphics;
+    private int mGenerations;       // Generations run since the soup was put back
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        // Creating a JFXPanel is the Java 8 way to start the FX toolkit.
+        new JFXPanel();
+
+        mModel = new CellModel(size, size, RuleSet.parse(rule));
+        mModel.setAgeTracking(aging);
+        newSoup();
+
+        mPanel = new CellPanel();
+        mPanel.setModel(mModel, cellSize);
+        mPanel.setCellAging(aging);
+        mGraphics = mPanel.getGraphicsContext2D();
+
+        // Only this thread may paint: stop the panel's own frames, which
+        // each transform would otherwise ask for on the FX thread.  The
+        // panel started them with runLater, so stop them the same way,
+        // and wait for that before drawing from this one.
+        Platform.runLater(mPanel::stopRendering);
+        CountDownLatch latch = new CountDownLatch(1);
+        Platform.runLater(latch::countDown);
+        latch.await();
+        mPanel.paintCells(mGraphics);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextGeneration() {
+        if (redrawAll) {
+            mPanel.invalidateCells();
+            return;
+        }
+        if (mGenerations == SOUP_GENERATIONS) {
+            // Draw the new soup here, so the timed paint stays incremental.
+            newSoup();
+            mPanel.paintCells(mGraphics);
+        }
+        mModel.transform();
+        mGenerations++;
+    }
+
+    private void newSoup() {
+        mModel.randomize(density, Fields.SEED);
+        // A few generations, so there are some ages to draw.
+        mModel.transform(8);
+        mGenerations = 0;
+    }
+
+    @Benchmark
+    public GraphicsContext paintCells() {
+        mPanel.paintCells(mGraphics);
+        return mGraphics;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+/**
+ * Starting fields shared by the benchmarks.  Every field comes from a
+ * fixed seed, so runs are comparable with each other.
+ */
+final class Fields {
+    static final long SEED = 20030709L;
+
+    private Fields() {
+    }
+
+    /**
+     * A random soup as a <tt>boolean[x][y]</tt> array.
+     */
+    static boolean[][] soup(int cols, int rows, double density) {
+        java.util.SplittableRandom random = new java.util.SplittableRandom(SEED);
+        boolean[][] cells = new boolean[cols][rows];
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < cols; i++) {
+                cells[i][j] = random.nextDouble() < density;
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * The same soup as <tt>soup()</tt>, packed into a BitGrid.
+     */
+    static BitGrid packedSoup(int cols, int rows, double density) {
+        boolean[][] cells = soup(cols, rows, density);
+        BitGrid grid = new BitGrid(cols, rows);
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < cols; i++) {
+                grid.set(i, j, cells[i][j]);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * A ChanceRuleSet with the neighbor counts of a B/S rule string.
+     */
+    static ChanceRuleSet chance(String rule, double bp, double sp) {
+        RuleSet rs = RuleSet.parse(rule);
+        ChanceRuleSet chance = new ChanceRuleSet(counts(rs.mBornMask), counts(rs.mSurviveMask), bp, sp);
+        chance.setSeed(SEED);
+        return chance;
+    }
+
+    private static int[] counts(int mask) {
+        int[] counts = new int[Integer.bitCount(mask)];
+        int n = 0;
+        for (int i = 0; i <= 8; i++) {
+            if ((mask & (1 << i)) != 0) {
+                counts[n++] = i;
+            }
+        }
+        return counts;
+    }
+}
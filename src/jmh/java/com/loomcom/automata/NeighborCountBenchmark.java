@@ -0,0 +1,63 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time <tt>Utilities.getNeighborCount()</tt> over every cell of a field,
+ * which is what the boolean transform does once per generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NeighborCountBenchmark {
+    @Param({"128", "512", "2048"})
+    public int size;
+
+    @Param({"0.1", "0.5"})
+    public double density;
+
+    private boolean[][] mCells;
+
+    @Setup
+    public void setUp() {
+        mCells = Fields.soup(size, size, density);
+    }
+
+    @Benchmark
+    public void neighborCounts(Blackhole bh) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                bh.consume(Utilities.getNeighborCount(mCells, i, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time one generation of <tt>RuleSet.transform()</tt> and
+ * <tt>ChanceRuleSet.transform()</tt>, on both the boolean array and the
+ * packed BitGrid paths.  Each call transforms the same starting field, so
+ * the work doesn't drift as the soup settles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RuleSetBenchmark {
+    @Param({"128", "512", "2048"})
+    public int size;
+
+    @Param({"0.1", "0.5"})
+    public double density;
+
+    @Param({"B3/S23", "B36/S23", "B2/S"})
+    public String rule;
+
+    private RuleSet mRuleSet;
+    private ChanceRuleSet mChanceRuleSet;
+    private boolean[][] mFrom;
+    private boolean[][] mTo;
+    private BitGrid mPackedFrom;
+    private BitGrid mPackedTo;
+    private long mGeneration;
+
+    @Setup
+    public void setUp() {
+        mRuleSet = RuleSet.parse(rule);
+        mChanceRuleSet = Fields.chance(rule, 90.0, 90.0);
+        mFrom = Fields.soup(size, size, density);
+        mTo = new boolean[size][size];
+        mPackedFrom = Fields.packedSoup(size, size, density);
+        mPackedTo = new BitGrid(size, size);
+    }
+
+    @Benchmark
+    public boolean[][] transform() {
+        mRuleSet.transform(mFrom, mTo);
+        return mTo;
+    }
+
+    @Benchmark
+    public BitGrid transformPacked() {
+        mRuleSet.transform(mPackedFrom, mPackedTo, ++mGeneration);
+        return mPackedTo;
+    }
+
+    @Benchmark
+    public boolean[][] chanceTransform() {
+        mChanceRuleSet.transform(mFrom, mTo);
+        return mTo;
+    }
+
+    @Benchmark
+    public BitGrid chanceTransformPacked() {
+        mChanceRuleSet.transform(mPackedFrom, mPackedTo, ++mGeneration);
+        return mPackedTo;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Run a simulation without any user interface, for compute nodes and
+ * scripts.  The field is either a random soup or a pattern read from an
+ * RLE, Life 1.06 or plaintext file, centered.  Nothing observes the model,
+ * and all the generations are computed in one call, so the time reported
+ * is time spent computing cells.
+ *
+ * <pre>
+ * java -cp automata.jar com.loomcom.automata.BatchRunner \
+ *      --rule B3/S23 --size 1024x1024 --generations 10000 --seed 42 --hash
+ * </pre>
+ *
+ * With <tt>--soups N</tt> it runs a <tt>SoupSearch</tt> instead: N soups
+ * of the given size, each on one thread, reporting how they settled.
+ * With <tt>--workers N</tt> the soup is split across N worker processes
+ * instead, as a <tt>PartitionedRun</tt>; <tt>--check</tt> then runs the
+ * same soup in one <tt>CellModel</tt> as well and compares the two, to
+ * prove the halo exchange.  With <tt>--hashlife</tt> or
+ * <tt>--sparse</tt> the starting field is copied into a
+ * <tt>HashLife</tt> or <tt>SparseCellModel</tt> universe and run there,
+ * on an unbounded plane rather than a torus; the field's window is what
+ * gets hashed and written out at the end.
+ */
+public class BatchRunner {
+    private static final String USAGE =
+            "Usage: BatchRunner [options]\n" +
+            "  --rule B3/S23        the rule to run (default: the pattern's, or B3/S23)\n" +
+            "  --size COLSxROWS     size of the field (default 512x512)\n" +
+            "  --generations N      number of generations to run (default 1000)\n" +
+            "  --seed N             seed for a random soup (default 0)\n" +
+            "  --density D          chance a soup cell is alive (default 0.5)\n" +
+            "  --pattern FILE       start from a pattern file instead of a soup\n" +
+            "  --output FILE        write the final cells to a pattern file\n" +
+            "  --threads N          worker threads (default: all processors)\n" +
+            "  --hash               print a hash of the final cells\n" +
+            "  --fast-forward       skip the computing once the field settles\n" +
+            "  --mapped DIR         keep the cells in memory-mapped files in DIR\n" +
+            "  --soups N            run N small soups side by side and summarize them\n" +
+            "  --workers N          split the soup's rows across N worker processes\n" +
+            "  --check              with --workers, check the result against one process\n" +
+            "  --hashlife           run on an unbounded plane with HashLife, for very long runs\n" +
+            "  --sparse             run on an unbounded plane in a SparseCellModel";
+
+    private RuleSet mRuleSet;   // null until given, so a pattern's own rule can be used
+    private int mCols = 512;
+    private int mRows = 512;
+    private long mGenerations = 1000;
+    private long mSeed = 0;
+    private double mDensity = 0.5;
+    private String mPattern;
+    private String mOutput;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private boolean mHash;
+    private boolean mFastForward;
+    private String mMappedDir;
+    private int mSoups;
+    private int mWorkers;
+    private boolean mCheck;
+    private boolean mCheckFailed;
+    private boolean mHashLife;
+    private boolean mSparse;
+
+    public static void main(String[] args) {
+        BatchRunner runner = new BatchRunner();
+        try {
+            runner.parseArgs(args);
+            runner.run();
+            if (runner.mCheckFailed) {
+                System.exit(1);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--hash")) {
+                mHash = true;
+                continue;
+            }
+            if (arg.equals("--fast-forward")) {
+                mFastForward = true;
+                continue;
+            }
+            if (arg.equals("--hashlife")) {
+                mHashLife = true;
+                continue;
+            }
+            if (arg.equals("--sparse")) {
+                mSparse = true;
+                continue;
+            }
+            if (arg.equals("--check")) {
+                mCheck = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--rule":
+                        mRuleSet = RuleSet.parse(value);
+                        break;
+                    case "--size":
+                        int x = value.indexOf('x');
+                        if (x < 0) {
+                            throw new IllegalArgumentException("Size should look like 512x512: " + value);
+                        }
+                        mCols = Integer.parseInt(value.substring(0, x));
+                        mRows = Integer.parseInt(value.substring(x + 1));
+                        break;
+                    case "--generations":
+                        mGenerations = Long.parseLong(value);
+                        break;
+                    case "--seed":
+                        mSeed = Long.parseLong(value);
+                        break;
+                    case "--density":
+                        mDensity = Double.parseDouble(value);
+                        break;
+                    case "--pattern":
+                        mPattern = value;
+                        break;
+                    case "--output":
+                        mOutput = value;
+                        break;
+                    case "--mapped":
+                        mMappedDir = value;
+                        break;
+                    case "--threads":
+                        mThreads = Integer.parseInt(value);
+                        break;
+                    case "--soups":
+                        mSoups = Integer.parseInt(value);
+                        break;
+                    case "--workers":
+                        mWorkers = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for " + arg + ": " + value);
+            }
+        }
+        if (mCols < 1 || mRows < 1 || mGenerations < 0 || mSoups < 0 || mWorkers < 0) {
+            throw new IllegalArgumentException("Size and generations can't be negative");
+        }
+        if (mWorkers > 0 && mPattern != null) {
+            throw new IllegalArgumentException("--workers starts from a soup, not a pattern");
+        }
+        if (mCheck && mWorkers == 0) {
+            throw new IllegalArgumentException("--check only goes with --workers");
+        }
+        int engines = (mHashLife ? 1 : 0) + (mSparse ? 1 : 0) + (mWorkers > 0 ? 1 : 0)
+                + (mSoups > 0 ? 1 : 0) + (mMappedDir != null ? 1 : 0);
+        if (engines > 1) {
+            throw new IllegalArgumentException(
+                    "Only one of --hashlife, --sparse, --workers, --soups and --mapped may be given");
+        }
+        if (!mHashLife && mGenerations > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Only --hashlife runs more than "
+                                               + Integer.MAX_VALUE + " generations");
+        }
+        if (mGenerations >>> (HashLife.MAX_STEP_LOG + 1) != 0) {
+            // One step per set bit, none bigger than HashLife can take.
+            throw new IllegalArgumentException("--hashlife runs at most 2^"
+                                               + (HashLife.MAX_STEP_LOG + 1) + " - 1 generations");
+        }
+    }
+
+    private void run() throws IOException {
+        RuleSet rs = mRuleSet != null ? mRuleSet : RuleSet.parse("B3/S23");
+        if (mSoups > 0) {
+            runSoups(rs);
+            return;
+        }
+        if (mWorkers > 0) {
+            runPartitioned(rs);
+            return;
+        }
+        if (mHashLife) {
+            runHashLife(rs);
+            return;
+        }
+        if (mSparse) {
+            runSparse(rs);
+            return;
+        }
+        if (mMappedDir == null) {
+            run(new CellModel(mCols, mRows, rs));
+            return;
+        }
+
+        Path dir = Paths.get(mMappedDir);
+        try (MappedBitGrid cells = MappedBitGrid.createTemp(mCols, mRows, dir);
+             MappedBitGrid temp = MappedBitGrid.createTemp(mCols, mRows, dir)) {
+            run(new CellModel(cells, temp, rs));
+        }
+    }
+
+    private void run(CellModel model) throws IOException {
+        model.setParallelism(mThreads);
+        model.setFastForward(mFastForward);
+        fill(model);
+
+        long start = System.nanoTime();
+        model.transform((int) mGenerations);
+        long elapsed = System.nanoTime() - start;
+
+        // Only the generations actually computed count towards the rate.
+        long skipped = model.getSkippedGenerations();
+        double seconds = elapsed / 1e9;
+        System.out.println("generations: " + model.getGeneration());
+        if (mFastForward) {
+            System.out.println("skipped:     " + skipped);
+        }
+        System.out.println("population:  " + model.getPopulation());
+        System.out.printf("seconds:     %.3f%n", seconds);
+        System.out.printf("gens/sec:    %.1f%n", seconds > 0 ? (mGenerations - skipped) / seconds : 0.0);
+        if (mHash) {
+            System.out.printf("hash:        %016x%n", model.getStateHash());
+        }
+        if (model.getStability() != null) {
+            System.out.println("settled:     " + model.getStability());
+        }
+        if (mOutput != null) {
+            PatternIO.write(model, Paths.get(mOutput));
+        }
+    }
+
+    /**
+     * Put the starting pattern, or a soup, into the model.
+     */
+    private void fill(CellModel model) throws IOException {
+        if (mPattern != null) {
+            String rule = PatternIO.read(Paths.get(mPattern), model, mCols / 2, mRows / 2);
+            if (mRuleSet == null && rule != null) {
+                // Drop any bounded grid suffix, as in "B3/S23:T100,100"
+                model.setRuleSet(RuleSet.parse(rule.split(":")[0]));
+            }
+        } else {
+            model.randomize(mDensity, mSeed);
+        }
+    }
+
+    private void runHashLife(RuleSet rs) throws IOException {
+        CellModel model = new CellModel(mCols, mRows, rs);
+        fill(model);
+        // The field is centered on the origin of the plane.
+        long originX = -(mCols / 2);
+        long originY = -(mRows / 2);
+        HashLife universe = new HashLife(model.getRuleSet());
+        universe.load(model, originX, originY);
+
+        // Run the biggest powers of two first, so each step size is
+        // only set once and its memoized results are used throughout.
+        long start = System.nanoTime();
+        for (int k = HashLife.MAX_STEP_LOG; k >= 0; k--) {
+            if ((mGenerations & (1L << k)) != 0) {
+                universe.setStepLog(k);
+                universe.step();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        System.out.println("generations: " + universe.getGeneration());
+        System.out.println("population:  " + universe.getPopulation());
+        System.out.println("nodes:       " + universe.getNodeCount());
+        System.out.printf("seconds:     %.3f%n", seconds);
+        System.out.printf("gens/sec:    %.1f%n", seconds > 0 ? mGenerations / seconds : 0.0);
+        finishWindow(model, (m) -> universe.store(m, originX, originY));
+    }
+
+    private void runSparse(RuleSet rs) throws IOException {
+        CellModel model = new CellModel(mCols, mRows, rs);
+        fill(model);
+        int originX = -(mCols / 2);
+        int originY = -(mRows / 2);
+        SparseCellModel universe = new SparseCellModel(model.getRuleSet());
+        universe.load(model, originX, originY);
+
+        long start = System.nanoTime();
+        for (long g = 0; g < mGenerations; g++) {
+            universe.transform();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        System.out.println("generations: " + universe.getGeneration());
+        System.out.println("population:  " + universe.getPopulation());
+        System.out.println("chunks:      " + universe.getChunkCount());
+        System.out.printf("seconds:     %.3f%n", seconds);
+        System.out.printf("gens/sec:    %.1f%n", seconds > 0 ? mGenerations / seconds : 0.0);
+        finishWindow(model, (m) -> universe.store(m, originX, originY));
+    }
+
+    /**
+     * Copy the field's window of an unbounded universe back into the
+     * model, if it's to be hashed or written out, and do so.
+     */
+    private void finishWindow(CellModel model, Consumer<CellModel> store) throws IOException {
+        if (!mHash && mOutput == null) {
+            return;
+        }
+        store.accept(model);
+        if (mHash) {
+            System.out.printf("hash:        %016x%n", model.getStateHash());
+        }
+        if (mOutput != null) {
+            PatternIO.write(model, Paths.get(mOutput));
+        }
+    }
+
+    private void runPartitioned(RuleSet rs) throws IOException {
+        try (PartitionedRun run = new PartitionedRun(rs, mCols, mRows, mWorkers)) {
+            run.setDensity(mDensity);
+            run.setSeed(mSeed);
+            run.start();
+
+            long start = System.nanoTime();
+            run.transform((int) mGenerations);
+            long elapsed = System.nanoTime() - start;
+
+            double seconds = elapsed / 1e9;
+            System.out.println("workers:     " + run.getWorkers());
+            System.out.println("generations: " + run.getGeneration());
+            System.out.println("population:  " + run.getPopulation());
+            System.out.printf("seconds:     %.3f%n", seconds);
+            System.out.printf("gens/sec:    %.1f%n", seconds > 0 ? mGenerations / seconds : 0.0);
+            if (mHash) {
+                System.out.printf("hash:        %016x%n", run.getStateHash());
+            }
+            if (mOutput != null) {
+                PatternIO.write(run.gather(), Paths.get(mOutput));
+            }
+            if (mCheck) {
+                check(rs, run);
+            }
+        }
+    }
+
+    /**
+     * Run the same soup for the same generations in a single
+     * <tt>CellModel</tt>, and compare its population and hash with the
+     * partitioned run's.  Any difference means the workers' bands didn't
+     * join up, most likely in the halo rows.
+     */
+    private void check(RuleSet rs, PartitionedRun run) {
+        CellModel model = new CellModel(mCols, mRows, rs);
+        model.setParallelism(mThreads);
+        model.randomize(mDensity, mSeed);
+        model.transform((int) mGenerations);
+
+        boolean same = model.getPopulation() == run.getPopulation()
+                && model.getStateHash() == run.getStateHash();
+        if (same) {
+            System.out.println("check:       same as one process");
+        } else {
+            System.out.printf("check:       DIFFERENT, one process has population %d, hash %016x%n",
+                              model.getPopulation(), model.getStateHash());
+            mCheckFailed = true;
+        }
+    }
+
+    private void runSoups(RuleSet rs) {
+        SoupSearch search = new SoupSearch(rs, mCols, mRows);
+        search.setDensity(mDensity);
+        search.setMaxGenerations((int) mGenerations);
+        search.setSeed(mSeed);
+        search.setThreads(mThreads);
+        SoupSearch.Summary summary = search.run(mSoups);
+
+        double seconds = summary.getElapsed() / 1e9;
+        System.out.println("soups:       " + mSoups);
+        System.out.println("extinct:     " + summary.getCount(StabilityEvent.Kind.EXTINCT));
+        System.out.println("still:       " + summary.getCount(StabilityEvent.Kind.STILL_LIFE));
+        System.out.println("oscillating: " + summary.getCount(StabilityEvent.Kind.OSCILLATOR));
+        System.out.println("unsettled:   " + summary.getUnsettled());
+        for (Map.Entry<Integer, Integer> e : summary.getPeriods().entrySet()) {
+            System.out.printf("  period %-4d %d%n", e.getKey(), e.getValue());
+        }
+        System.out.printf("population:  %.1f mean%n", summary.getMeanPopulation());
+        System.out.printf("settled at:  %.1f mean%n", summary.getMeanSettledAt());
+        System.out.printf("seconds:     %.3f%n", seconds);
+        System.out.printf("soups/sec:   %.1f%n", seconds > 0 ? mSoups / seconds : 0.0);
+        for (SoupSearch.Result r : summary.getUnsettledResults()) {
+            System.out.printf("unsettled soup %d, seed %d%n", r.getIndex(), r.getSeed());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * A bit-packed two dimensional field of cells.  Each row is stored as an
+ * array of <tt>long</tt> words holding 64 cells apiece, so cell <tt>x</tt>
+ * of a row lives in bit <tt>(x &amp; 63)</tt> of word <tt>(x &gt;&gt; 6)</tt>.
+ * The unused high bits of the last word in each row are always zero.
+ *
+ * This class keeps the words on the heap.  Subclasses may keep them
+ * elsewhere, which is why rows are reached through <tt>row()</tt> and
+ * <tt>commitRow()</tt>: here a row is handed out as the live array, while
+ * other storage copies words in and out of a buffer.
+ */
+public class BitGrid {
+    private final long[][] mWords;  // One array of words per row, or null
+    private final int mCols;        // Width of the field, in cells
+    private final int mRows;        // Height of the field, in cells
+    private final int mWordCount;   // Number of words in each row
+    private final long mLastMask;   // Valid bits of the last word in a row
+
+    /**
+     * Create a new, empty field <tt>cols</tt> cells wide and
+     * <tt>rows</tt> cells high.
+     *
+     * @param cols The number of cell columns
+     * @param rows The number of cell rows
+     */
+    public BitGrid(int cols, int rows) {
+        mCols = cols;
+        mRows = rows;
+        mWordCount = (cols + 63) >>> 6;
+        mLastMask = (cols & 63) == 0 ? -1L : (1L << (cols & 63)) - 1;
+        mWords = new long[rows][mWordCount];
+    }
+
+    /**
+     * Set up the dimensions for a subclass which stores the words itself.
+     */
+    protected BitGrid(int cols, int rows, boolean onHeap) {
+        mCols = cols;
+        mRows = rows;
+        mWordCount = (cols + 63) >>> 6;
+        mLastMask = (cols & 63) == 0 ? -1L : (1L << (cols & 63)) - 1;
+        mWords = onHeap ? new long[rows][mWordCount] : null;
+    }
+
+    /**
+     * Return the boolean value of the cell at <tt>(x,y)</tt>.  No bounds
+     * checking is done here; that's the caller's job.
+     */
+    public boolean get(int x, int y) {
+        return (mWords[y][x >>> 6] & (1L << x)) != 0;
+    }
+
+    /**
+     * Set the cell at <tt>(x,y)</tt> to the supplied value.  No bounds
+     * checking is done here; that's the caller's job.
+     */
+    public void set(int x, int y, boolean b) {
+        if (b) {
+            mWords[y][x >>> 6] |= (1L << x);
+        } else {
+            mWords[y][x >>> 6] &= ~(1L << x);
+        }
+    }
+
+    /**
+     * Return word <tt>i</tt> of row <tt>y</tt>.
+     */
+    public long getWord(int y, int i) {
+        return mWords[y][i];
+    }
+
+    /**
+     * Return an array holding at least the words <tt>[firstWord,
+     * endWord)</tt> of row <tt>y</tt>, at their own indexes.  Here that's
+     * the live row itself, and <tt>buffer</tt> is ignored; storage off the
+     * heap copies the words into <tt>buffer</tt> instead.  Either way,
+     * changes written into the array only stick once passed to
+     * <tt>commitRow()</tt>.
+     *
+     * @param buffer    An array from <tt>newRowBuffer()</tt>.
+     */
+    public long[] row(int y, long[] buffer, int firstWord, int endWord) {
+        return mWords[y];
+    }
+
+    /**
+     * Store the words <tt>[firstWord, endWord)</tt> of an array got from
+     * <tt>row()</tt> back into row <tt>y</tt>.  Callers must keep the
+     * unused bits of the last word clear.
+     */
+    public void commitRow(int y, long[] row, int firstWord, int endWord) {
+        // The row was the live storage, so there's nothing to do.
+    }
+
+    /**
+     * Return a buffer for <tt>row()</tt> to copy words into, or null if,
+     * as here, it never needs one.  A buffer must only be used by one
+     * thread at a time.
+     */
+    public long[] newRowBuffer() {
+        return null;
+    }
+
+    /**
+     * Clear every cell in the field.
+     */
+    public void clear() {
+        for (long[] row : mWords) {
+            java.util.Arrays.fill(row, 0L);
+        }
+    }
+
+    /**
+     * Compute a 64 bit hash of the cells.  Each word contributes
+     * <tt>wordHash()</tt> of its position and contents, XOR-ed together,
+     * so a hash can be kept up to date by XOR-ing out a word's old
+     * contribution and XOR-ing in the new one.
+     */
+    public long hash() {
+        long h = 0;
+        long[] buffer = newRowBuffer();
+        for (int j = 0; j < mRows; j++) {
+            long[] row = row(j, buffer, 0, mWordCount);
+            for (int i = 0; i < mWordCount; i++) {
+                h ^= wordHash(j * mWordCount + i, row[i]);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * The contribution of one word to the field's hash.  Empty words
+     * contribute nothing.
+     *
+     * @param index The word's position, counting row by row.
+     * @param word  The word's contents.
+     */
+    public static long wordHash(int index, long word) {
+        if (word == 0) {
+            return 0;
+        }
+        long z = word + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Count the living cells in the field.
+     */
+    public long getPopulation() {
+        long count = 0;
+        long[] buffer = newRowBuffer();
+        for (int j = 0; j < mRows; j++) {
+            long[] row = row(j, buffer, 0, mWordCount);
+            for (int i = 0; i < mWordCount; i++) {
+                count += Long.bitCount(row[i]);
+            }
+        }
+        return count;
+    }
+
+    public int getCols() {
+        return mCols;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    /**
+     * Get the number of words used to store a single row.
+     */
+    public int getWordCount() {
+        return mWordCount;
+    }
+
+    /**
+     * Get the mask of valid cell bits in the last word of each row.
+     */
+    public long getLastWordMask() {
+        return mLastMask;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * A batch of cell edits, gathered up and then applied to a
+ * <tt>CellModel</tt> all at once with <tt>CellModel.apply()</tt>, which
+ * tells the observers once, with an <tt>EditEvent</tt> covering them
+ * all, rather than once a cell.  The edits are applied in the order
+ * they were made, so a later edit of a cell wins.
+ *
+ * Coordinates aren't checked until the batch is applied; cells outside
+ * the field are ignored then.  A batch can also be handed to another
+ * thread to apply with <tt>CellModel.submit()</tt>, after which it
+ * mustn't be changed.
+ */
+public class CellEdits {
+    /** What an edit does to its cell, kept in the lowest bits. */
+    private static final int KILL = 0;
+    private static final int BIRTH = 1;
+    private static final int FLIP = 2;
+
+    private long[] mEdits = new long[16];   // Packed by pack(), in order
+    private int mSize;
+
+    /**
+     * Set the cell at <tt>(x, y)</tt> to <tt>b</tt>.
+     */
+    public void set(int x, int y, boolean b) {
+        add(x, y, b ? BIRTH : KILL);
+    }
+
+    /**
+     * Toggle the cell at <tt>(x, y)</tt>, from whatever it is when the
+     * batch is applied.
+     */
+    public void flip(int x, int y) {
+        add(x, y, FLIP);
+    }
+
+    /**
+     * Bring to life the cells of a shape, centered on <tt>(x, y)</tt>.
+     *
+     * @param pattern   A 2D array of booleans representing the pattern bits.
+     */
+    public void shape(int x, int y, boolean[][] pattern) {
+        int width = Utilities.getWidth(pattern);
+        int height = Utilities.getHeight(pattern);
+
+        // The shape begins at origin ((x - width / 2), (y - height / 2))
+        int originX = (x - width / 2);
+        int originY = (y - height / 2);
+        for (int patternX = 0; patternX < width; patternX++) {
+            for (int patternY = 0; patternY < height; patternY++) {
+                if (pattern[patternX][patternY]) {
+                    set(originX + patternX, originY + patternY, true);
+                }
+            }
+        }
+    }
+
+    private void add(int x, int y, int op) {
+        if (mSize == mEdits.length) {
+            mEdits = java.util.Arrays.copyOf(mEdits, mSize * 2);
+        }
+        mEdits[mSize++] = pack(x, y, op);
+    }
+
+    /**
+     * Set every cell on the straight line from <tt>(x0, y0)</tt> to
+     * <tt>(x1, y1)</tt>, both ends included, to <tt>b</tt>.  The line is
+     * eight-connected, so a mouse moved quickly still leaves an unbroken
+     * trail.
+     */
+    public void line(int x0, int y0, int x1, int y1, boolean b) {
+        // Bresenham's line, stepping along whichever axis is longer.
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int err = dx + dy;
+        int x = x0;
+        int y = y0;
+        while (true) {
+            set(x, y, b);
+            if (x == x1 && y == y1) {
+                break;
+            }
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y += sy;
+            }
+        }
+    }
+
+    /**
+     * Return the number of edits in the batch.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Forget every edit, to use the batch again.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    int getX(int i) {
+        return (int) (mEdits[i] >> 32);
+    }
+
+    int getY(int i) {
+        return (int) mEdits[i] >> 2;
+    }
+
+    /**
+     * Return the state edit <tt>i</tt> leaves its cell in, given the
+     * state it was in before.
+     */
+    boolean getValue(int i, boolean before) {
+        int op = (int) mEdits[i] & 3;
+        return op == FLIP ? !before : op == BIRTH;
+    }
+
+    /**
+     * Pack an edit into a long: <tt>x</tt> in the high half, then
+     * <tt>y</tt> in 30 bits and what to do in the lowest two.
+     */
+    private static long pack(int x, int y, int op) {
+        return ((long) x << 32) | ((y << 2) & 0xFFFFFFFFL) | op;
+    }
+}
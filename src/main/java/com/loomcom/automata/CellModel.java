@@ -20,19 +20,40 @@
 
 package com.loomcom.automata;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * The data model representing the cells.  This model represents the
  * current state of all the "cells" (boolean bits) in the two-dimensional
- * world.
+ * world.  The cells are kept bit-packed, 64 to a word, in a pair of
+ * <tt>BitGrid</tt>s.
  *
  * @author Seth Morabito
  * @version $Id: CellModel.java,v 1.6 2003/07/09 23:32:49 sethm Exp $
  */
 public class CellModel extends java.util.Observable {
-    private boolean[][] mCells;         // The actual data.
-    private boolean[][] mTempCells;     // Temp array used when transforming
+    /**
+     * Height of an active-region tile, in cells.  Tiles are one word (64
+     * cells) wide.
+     */
+    public static final int TILE_ROWS = 64;
 
-    private int[][] mCellAges;  // Array of cell ages.
+    /** Ages stop counting here. */
+    public static final int MAX_AGE = 255;
+
+    /**
+     * Number of generations of hashes kept, and so the longest period an
+     * oscillating field can be recognized by.  A power of two.
+     */
+    public static final int HISTORY_SIZE = 64;
+
+    private BitGrid mCells;         // The actual data.
+    private BitGrid mTempCells;     // Temp field used when transforming
+
+    private byte[][] mCellAges; // Cell ages, indexed [y][x], or null if not tracked
 
     private int mCols;  // Width of the cell array
     private int mRows;  // Height of the cell array
@@ -40,6 +61,30 @@ public class CellModel extends java.util.Observable {
 
     private int mGeneration;    // Current "generation"
 
+    private ForkJoinPool mPool; // Workers for parallel transforms, or null
+    private int mParallelism = 1;
+
+    private int mTileCols;          // Width of the field, in tiles
+    private int mTileRows;          // Height of the field, in tiles
+    private boolean[] mDirty;       // Tiles changed by the last generation or an edit
+    private boolean[] mNextDirty;   // Tiles changed by the generation being computed
+    private boolean[] mActive;      // Tiles to recompute this generation
+    private int mActiveTiles;       // Number of tiles recomputed last generation
+    private int[] mQuiet;           // Generations each tile has gone unrecomputed
+
+    private long mHash;             // mCells.hash(), kept up to date as cells change
+    private long[] mHashes = new long[HISTORY_SIZE];  // Recent hashes, by generation
+    private int mHashCount;         // Number of valid entries in mHashes
+    private StabilityEvent mStability;  // How the field has settled, or null
+    private boolean mFastForward;   // Skip whole periods once settled
+    private long mSkipped;          // Generations skipped by fast-forwarding
+
+    private GenerationHistory mGenerationHistory;   // Past generations, or null
+    private final ConcurrentLinkedQueue<Runnable> mPendingChanges = new ConcurrentLinkedQueue<>();
+    private final CopyOnWriteArrayList<SnapshotReader> mSnapshotReaders = new CopyOnWriteArrayList<>();
+    private boolean mHistoryStale;  // Cells edited since the history last saw them
+    private final boolean mMapped;  // Cells kept off the heap, and must stay there
+
     /**
      * Create a new two dimensional cell array with width <tt>x</tt>
      * and height <tt>y</tt>.
@@ -60,12 +105,44 @@ public class CellModel extends java.util.Observable {
      * @param rs        The RuleSet to use at creation time
      */
     public CellModel(int x, int y, RuleSet rs) {
-        mCells = new boolean[x][y];
-        mTempCells = new boolean[x][y];
-        mCellAges = new int[x][y];
-        mCols = x;
-        mRows = y;
+        this(new BitGrid(x, y), new BitGrid(x, y), rs);
+    }
+
+    /**
+     * Create a cell model on storage supplied by the caller, such as a
+     * <tt>MappedBitGrid</tt> for a field too big for the heap.  The model
+     * starts from whatever <tt>cells</tt> holds; <tt>temp</tt> is scratch
+     * space for the next generation.
+     *
+     * On a <tt>MappedBitGrid</tt>, cell ages and snapshot readers are
+     * refused.  Both would be kept on the heap and grow with the field's
+     * area: a byte a cell for the ages, and three copies of the cells for
+     * each reader.  That would undo the point of mapping the field.
+     *
+     * @param cells     The current generation.
+     * @param temp      Storage for the next generation, the same size.
+     * @param rs        The RuleSet to use at creation time
+     */
+    public CellModel(BitGrid cells, BitGrid temp, RuleSet rs) {
+        if (cells.getCols() != temp.getCols() || cells.getRows() != temp.getRows()) {
+            throw new IllegalArgumentException("Both generations must be the same size");
+        }
+        mCells = cells;
+        mTempCells = temp;
+        mCols = cells.getCols();
+        mRows = cells.getRows();
         mRuleSet = rs;
+        mHash = cells.hash();
+        mMapped = cells instanceof MappedBitGrid || temp instanceof MappedBitGrid;
+
+        mTileCols = mCells.getWordCount();
+        mTileRows = (mRows + TILE_ROWS - 1) / TILE_ROWS;
+        mDirty = new boolean[mTileCols * mTileRows];
+        mNextDirty = new boolean[mDirty.length];
+        mActive = new boolean[mDirty.length];
+        mQuiet = new int[mDirty.length];
+        markAllDirty();
+        forgetHashes();
     }
 
     /**
@@ -79,17 +156,47 @@ public class CellModel extends java.util.Observable {
         if (x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
             return false;
 
-        return mCells[x][y];
+        return mCells.get(x, y);
     }
 
     /**
-     * Return the age, in generations, of the cell at <tt>(x,y)</tt>
+     * Return the age, in generations, of the cell at <tt>(x,y)</tt>.
+     * Ages count up to <tt>MAX_AGE</tt> and stay there, and are always 0
+     * when age tracking is off.
      */
     public int getCellAge(int x, int y) {
-        if (x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
+        byte[][] ages = mCellAges;
+        if (ages == null || x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
             return 0;
 
-        return mCellAges[x][y];
+        return ages[y][x] & 0xff;
+    }
+
+    /**
+     * Turn cell age tracking on or off.  Ages cost a byte per cell and a
+     * little time each generation, so they're off by default.  Turning
+     * tracking on starts every cell at age 0; turning it off frees the
+     * ages.  A memory-mapped field can't track ages.
+     */
+    public void setAgeTracking(boolean b) {
+        if (b == (mCellAges != null)) { return; }
+        if (b && mMapped) {
+            throw new IllegalStateException("Cell ages can't be kept for a memory-mapped field");
+        }
+        mCellAges = b ? new byte[mRows][mCols] : null;
+        if (b) {
+            // Snapshots only copy the ages of tiles that change.
+            for (SnapshotReader reader : mSnapshotReaders) {
+                reader.markAll();
+            }
+        }
+    }
+
+    /**
+     * Return true if cell ages are being tracked.
+     */
+    public boolean isAgeTracking() {
+        return mCellAges != null;
     }
 
     /**
@@ -102,9 +209,9 @@ public class CellModel extends java.util.Observable {
         if (x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
             return;
 
-        mCells[x][y] = !mCells[x][y];
+        edit(x, y, !mCells.get(x, y));
         setChanged();
-        notifyObservers();
+        notifyObservers(new EditEvent(x, y, x + 1, y + 1, 1));
     }
 
     /**
@@ -118,11 +225,229 @@ public class CellModel extends java.util.Observable {
         if (x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
             return;
 
-        mCells[x][y] = b;
+        edit(x, y, b);
+        setChanged();
+        notifyObservers(new EditEvent(x, y, x + 1, y + 1, 1));
+    }
+
+    /**
+     * Apply a batch of edits in order, and tell the observers once, with
+     * an <tt>EditEvent</tt> covering the cells that were in the field.
+     * If none were, nobody is told.
+     *
+     * @param edits The edits to make.  The batch is left as it was.
+     */
+    public void apply(CellEdits edits) {
+        int firstCol = mCols;
+        int firstRow = mRows;
+        int endCol = 0;
+        int endRow = 0;
+        int count = 0;
+        for (int i = 0; i < edits.size(); i++) {
+            int x = edits.getX(i);
+            int y = edits.getY(i);
+            if (x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
+                continue;
+
+            edit(x, y, edits.getValue(i, mCells.get(x, y)));
+            firstCol = Math.min(firstCol, x);
+            firstRow = Math.min(firstRow, y);
+            endCol = Math.max(endCol, x + 1);
+            endRow = Math.max(endRow, y + 1);
+            count++;
+        }
+        if (count > 0) {
+            setChanged();
+            notifyObservers(new EditEvent(firstCol, firstRow, endCol, endRow, count));
+        }
+    }
+
+    /**
+     * Queue a batch of edits to be applied by whichever thread is
+     * transforming the model, before its next generation, so that edits
+     * from other threads never land in the middle of one.  Any number of
+     * threads may submit at once; the queue takes no locks.  The batch
+     * mustn't be changed once it's submitted.
+     */
+    public void submit(CellEdits edits) {
+        mPendingChanges.add(() -> apply(edits));
+    }
+
+    /**
+     * Queue any other change to the model, such as a new rule set, to be
+     * run between generations in the same way as submitted edits, and in
+     * order with them.
+     */
+    public void submit(Runnable change) {
+        mPendingChanges.add(change);
+    }
+
+    /**
+     * Return true if there are submitted changes still to apply.
+     */
+    public boolean hasPendingChanges() {
+        return !mPendingChanges.isEmpty();
+    }
+
+    /**
+     * Apply the submitted changes, in the order they were submitted.
+     * This must only be called by the thread transforming the model, or
+     * while nothing is.
+     */
+    public void applyPendingChanges() {
+        Runnable change;
+        while ((change = mPendingChanges.poll()) != null) {
+            change.run();
+        }
+    }
+
+    /**
+     * Set a cell without telling the observers, for loading many cells
+     * at once.  Call <tt>cellsChanged()</tt> when done.  Cells outside
+     * the field are ignored.
+     */
+    void putCell(int x, int y, boolean b) {
+        if (x < 0 || y < 0 || x > (mCols - 1) || y > (mRows - 1))
+            return;
+
+        edit(x, y, b);
+    }
+
+    /**
+     * Tell the observers that cells have been changed by <tt>putCell()</tt>.
+     */
+    void cellsChanged() {
         setChanged();
         notifyObservers();
     }
 
+    /**
+     * Return word <tt>i</tt> of row <tt>y</tt>, holding cells
+     * <tt>64 * i</tt> onwards, for reading the field quickly.
+     */
+    long getWord(int y, int i) {
+        return mCells.getWord(y, i);
+    }
+
+    /**
+     * Change one cell, keeping the ages, tiles and hash in step, without
+     * telling the observers.
+     */
+    private void edit(int x, int y, boolean b) {
+        int w = x >>> 6;
+        int index = y * mTileCols + w;
+        long before = mCells.getWord(y, w);
+        mCells.set(x, y, b);
+        mHash ^= BitGrid.wordHash(index, before) ^ BitGrid.wordHash(index, mCells.getWord(y, w));
+        if (!b) {
+            clearAge(x, y);
+        }
+        markDirty(x, y);
+        forgetHashes();
+        mHistoryStale = true;
+    }
+
+    /**
+     * Fill the field with a random soup, replacing what was there.  The
+     * same seed always gives the same soup.
+     *
+     * @param density   The chance, between 0.0 and 1.0, that a cell is alive.
+     * @param seed      The random seed.
+     */
+    public void randomize(double density, long seed) {
+        mCells.clear();
+        fillSoup(mCells, 0, mRows, 0, density, seed);
+        byte[][] ages = mCellAges;
+        if (ages != null) {
+            for (int j = 0; j < mRows; j++) {
+                java.util.Arrays.fill(ages[j], (byte) 0);
+            }
+        }
+        markAllDirty();
+        mHash = mCells.hash();
+        forgetHashes();
+        mHistoryStale = true;
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * Fill rows <tt>[firstRow, endRow)</tt> of <tt>grid</tt>, which must be
+     * clear, with the soup <tt>randomize()</tt> makes, starting from row
+     * <tt>soupRow</tt> of it.  Cell <tt>n</tt> of the soup, counting row by
+     * row, takes the <tt>n</tt>th number of a <tt>SplittableRandom</tt>
+     * made from the seed, worked out directly so that a band of a field
+     * can be filled without drawing every number before it.
+     */
+    static void fillSoup(BitGrid grid, int firstRow, int endRow, int soupRow,
+                         double density, long seed) {
+        final long gamma = 0x9E3779B97F4A7C15L;   // SplittableRandom's own
+        int cols = grid.getCols();
+        long n = (long) soupRow * cols;
+        for (int j = firstRow; j < endRow; j++) {
+            for (int i = 0; i < cols; i++) {
+                long z = seed + ++n * gamma;
+                z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                z ^= z >>> 31;
+                if ((z >>> 11) * 0x1.0p-53 < density) {
+                    grid.set(i, j, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the living cells.
+     *
+     * @return  The population of the field.
+     */
+    public long getPopulation() {
+        return mCells.getPopulation();
+    }
+
+    /**
+     * Return a 64 bit hash of the living cells, for telling whether two
+     * fields are the same.  The hash is kept up to date as cells change,
+     * so this costs nothing.
+     */
+    public long getStateHash() {
+        return mHash;
+    }
+
+    /**
+     * Return how the field has settled down, or null if it is still
+     * changing, as far as the model can tell.  Only fields run with a
+     * deterministic rule can settle.
+     */
+    public StabilityEvent getStability() {
+        return mStability;
+    }
+
+    /**
+     * Turn fast-forwarding on or off.  When it's on and the field has
+     * settled, <tt>transform(n)</tt> skips as many whole periods as fit in
+     * <tt>n</tt> without computing them, since they'd come out the same.
+     * Ages would change over those generations, so nothing is skipped
+     * while they're being tracked.
+     */
+    public void setFastForward(boolean b) {
+        mFastForward = b;
+    }
+
+    public boolean isFastForward() {
+        return mFastForward;
+    }
+
+    /**
+     * Return how many generations fast-forwarding has skipped rather than
+     * computed since the model was made, so they can be left out of
+     * timings.
+     */
+    public long getSkippedGenerations() {
+        return mSkipped;
+    }
+
     /**
      * Get the number of columns in this cell field.
      *
@@ -146,13 +471,19 @@ public class CellModel extends java.util.Observable {
      * count back to 0.
      */
     public void reset() {
-        for (int i = 0; i < mCols; i++) {
+        mCells.clear();
+        mTempCells.clear();
+        byte[][] ages = mCellAges;
+        if (ages != null) {
             for (int j = 0; j < mRows; j++) {
-                mCells[i][j] = false;
-                mCellAges[i][j] = 0;
+                java.util.Arrays.fill(ages[j], (byte) 0);
             }
         }
+        markAllDirty();
         mGeneration = 0;
+        mHash = 0;
+        forgetHashes();
+        mHistoryStale = true;
         setChanged();
         notifyObservers();
     }
@@ -170,29 +501,502 @@ public class CellModel extends java.util.Observable {
      * Transform to the next generation of cells.
      */
     public void transform() {
+        transform(1);
+    }
+
+    /**
+     * Transform <tt>n</tt> generations ahead.  The observers are only told
+     * once, at the end, so this is the way to run flat out.  If the field
+     * settled down on the way, they are passed a <tt>StabilityEvent</tt>.
+     *
+     * @param n The number of generations.
+     */
+    public void transform(int n) {
         if (mRuleSet == null) { return; }
-        mRuleSet.transform(mCells, mTempCells);
 
-        for (int i = 0; i < mCols; i++) {
-            for (int j = 0; j < mRows; j++) {
-                if (mCells[i][j] & mTempCells[i][j])
-                    mCellAges[i][j]++;
-                else
-                    mCellAges[i][j] = 0;
+        StabilityEvent settled = null;
+        int done = 0;
+        while (done < n) {
+            if (!mPendingChanges.isEmpty()) {
+                applyPendingChanges();
+            }
+            if (mFastForward && mStability != null && mCellAges == null) {
+                int period = mStability.getPeriod();
+                int skip = (n - done) - (n - done) % period;
+                mGeneration += skip;
+                mSkipped += skip;
+                done += skip;
+                if (done == n) { break; }
+            }
+            step();
+            done++;
+            if (mStability == null && checkStability()) {
+                settled = mStability;
             }
         }
 
+        setChanged();
+        notifyObservers(settled);
+    }
+
+    /**
+     * Compute the next generation, without telling anyone.
+     */
+    private void step() {
+        GenerationHistory history = mGenerationHistory;
+        if (history != null && mHistoryStale) {
+            // Edits broke the chain of deltas, so start again from here.
+            history.truncate(mGeneration);
+            history.putKeyframe(mGeneration, mCells);
+            mHistoryStale = false;
+        }
+
+        byte[][] ages = mCellAges;
+        findActiveTiles();
+        if (mPool == null) {
+            mHash ^= transformTiles(0, mTileRows, ages);
+        } else {
+            StripeTask task = new StripeTask(0, mTileRows, stripeTiles(), ages);
+            mPool.invoke(task);
+            mHash ^= task.mHashChange;
+        }
+
         // Swap the arrays, speedily
-        boolean[][] b = mCells;
+        BitGrid b = mCells;
         mCells = mTempCells;
         mTempCells = b;
         b = null;
+        boolean[] d = mDirty;
+        mDirty = mNextDirty;
+        mNextDirty = d;
         mGeneration++;
 
+        for (SnapshotReader reader : mSnapshotReaders) {
+            reader.markTiles(mDirty);
+            if (ages != null) {
+                reader.markAgeing(mQuiet);
+            }
+        }
+
+        if (history != null) {
+            recordGeneration(history);
+        }
+    }
+
+    /**
+     * Add the generation just computed to the history, as the words which
+     * changed.  Only active tiles can have changed.  Anything the history
+     * held from this generation on belonged to another run, and goes.
+     */
+    private void recordGeneration(GenerationHistory history) {
+        history.truncate(mGeneration);
+        if (!history.canAppend(mGeneration)) {
+            history.putKeyframe(mGeneration, mCells);
+            return;
+        }
+
+        GenerationHistory.Encoder delta = new GenerationHistory.Encoder();
+        for (int ty = 0; ty < mTileRows; ty++) {
+            int base = ty * mTileCols;
+            int endRow = Math.min((ty + 1) * TILE_ROWS, mRows);
+            for (int j = ty * TILE_ROWS; j < endRow; j++) {
+                for (int tx = 0; tx < mTileCols; tx++) {
+                    if (!mActive[base + tx]) {
+                        continue;
+                    }
+                    long change = mCells.getWord(j, tx) ^ mTempCells.getWord(j, tx);
+                    if (change != 0) {
+                        delta.put((long) j * mTileCols + tx, change);
+                    }
+                }
+            }
+        }
+        history.putDelta(mGeneration, delta);
+    }
+
+    /**
+     * Keep a history of past generations from now on, so that
+     * <tt>seek()</tt> can go back to them, or stop keeping one if
+     * <tt>history</tt> is null.
+     */
+    public void setHistory(GenerationHistory history) {
+        mGenerationHistory = history;
+        mHistoryStale = true;
+    }
+
+    public GenerationHistory getHistory() {
+        return mGenerationHistory;
+    }
+
+    /**
+     * Return a reader of snapshots of the model, for one other thread to
+     * read consistent copies of it from while the model carries on.  A
+     * snapshot is published each time the observers are told of a
+     * change.  The reader starts with a snapshot of the model as it is,
+     * so this must be called from the thread changing the model, or
+     * while nothing is.  A memory-mapped field has no snapshots.
+     */
+    public SnapshotReader newSnapshotReader() {
+        if (mMapped) {
+            throw new IllegalStateException("Snapshots can't be taken of a memory-mapped field");
+        }
+        SnapshotReader reader = new SnapshotReader(mCols, mRows, mTileCols * mTileRows);
+        reader.publish(this);
+        mSnapshotReaders.add(reader);
+        return reader;
+    }
+
+    /**
+     * Stop publishing snapshots to <tt>reader</tt>.
+     */
+    public void removeSnapshotReader(SnapshotReader reader) {
+        mSnapshotReaders.remove(reader);
+    }
+
+    /**
+     * Bring a snapshot up to date with the model, copying the tiles
+     * marked in <tt>stale</tt>.
+     */
+    void fillSnapshot(CellSnapshot snapshot, boolean[] stale) {
+        snapshot.fill(mCells, stale, mCellAges, mGeneration, mHash, mRuleSet);
+    }
+
+    /**
+     * Publish the model's state to the snapshot readers, then tell the
+     * observers, so an observer taking a snapshot sees the change it was
+     * told of.
+     */
+    @Override
+    public void notifyObservers(Object arg) {
+        for (SnapshotReader reader : mSnapshotReaders) {
+            reader.publish(this);
+        }
+        super.notifyObservers(arg);
+    }
+
+    /**
+     * Go back, or forward, to a generation held in the history.  Ages
+     * aren't kept in the history, so they start again from zero.
+     *
+     * @param generation    The generation to go to.
+     * @return  True if the generation was in the history, false if not,
+     *          in which case nothing changes.
+     */
+    public boolean seek(int generation) {
+        GenerationHistory history = mGenerationHistory;
+        if (history == null || !history.restore(generation, mCells)) {
+            return false;
+        }
+
+        mGeneration = generation;
+        mHash = mCells.hash();
+        byte[][] ages = mCellAges;
+        if (ages != null) {
+            for (int j = 0; j < mRows; j++) {
+                java.util.Arrays.fill(ages[j], (byte) 0);
+            }
+        }
+        markAllDirty();
+        forgetHashes();
+        mHistoryStale = false;
         setChanged();
         notifyObservers();
+        return true;
     }
 
+    /**
+     * Look for the current hash among the last few generations'.  A
+     * match <tt>p</tt> generations back means the field is the same as it
+     * was then, so with a deterministic rule it will go round the same
+     * <tt>p</tt> generations forever.  (Two different fields sharing a 64
+     * bit hash is possible, but too unlikely to worry about.)
+     *
+     * @return  True if the field has just been found to have settled.
+     */
+    private boolean checkStability() {
+        if (!mRuleSet.isDeterministic()) {
+            mHashCount = 0;
+            return false;
+        }
+
+        int found = 0;
+        int back = Math.min(mHashCount, HISTORY_SIZE);
+        for (int p = 1; p <= back; p++) {
+            if (mHashes[(mGeneration - p) & (HISTORY_SIZE - 1)] == mHash) {
+                found = p;
+                break;
+            }
+        }
+        mHashes[mGeneration & (HISTORY_SIZE - 1)] = mHash;
+        mHashCount++;
+        if (found == 0) {
+            return false;
+        }
+
+        StabilityEvent.Kind kind;
+        if (found > 1) {
+            kind = StabilityEvent.Kind.OSCILLATOR;
+        } else if (mHash == 0 && mCells.getPopulation() == 0) {
+            kind = StabilityEvent.Kind.EXTINCT;
+        } else {
+            kind = StabilityEvent.Kind.STILL_LIFE;
+        }
+        mStability = new StabilityEvent(kind, found, mGeneration);
+        return true;
+    }
+
+    /**
+     * Start the hash history again from the current field, after an edit
+     * or a change of rule has broken the run.
+     */
+    private void forgetHashes() {
+        mHashes[mGeneration & (HISTORY_SIZE - 1)] = mHash;
+        mHashCount = 1;
+        mStability = null;
+    }
+
+
+    /**
+     * Decide which tiles need recomputing: those which changed last
+     * generation, and their neighbors, wrapping around the edges.  Every
+     * other tile is known to be the same in both fields already.
+     */
+    private void findActiveTiles() {
+        boolean all = !mRuleSet.isDeterministic();
+        int count = 0;
+        for (int ty = 0; ty < mTileRows; ty++) {
+            int up = ty > 0 ? ty - 1 : mTileRows - 1;
+            int down = ty < mTileRows - 1 ? ty + 1 : 0;
+            for (int tx = 0; tx < mTileCols; tx++) {
+                int left = tx > 0 ? tx - 1 : mTileCols - 1;
+                int right = tx < mTileCols - 1 ? tx + 1 : 0;
+                boolean active = all
+                        || isDirty(left, up) || isDirty(tx, up) || isDirty(right, up)
+                        || isDirty(left, ty) || isDirty(tx, ty) || isDirty(right, ty)
+                        || isDirty(left, down) || isDirty(tx, down) || isDirty(right, down);
+                mActive[ty * mTileCols + tx] = active;
+                if (active) {
+                    count++;
+                }
+            }
+        }
+        mActiveTiles = count;
+    }
+
+    private boolean isDirty(int tx, int ty) {
+        return mDirty[ty * mTileCols + tx];
+    }
+
+    /**
+     * Note that the tile holding cell <tt>(x,y)</tt> has been edited.
+     */
+    private void markDirty(int x, int y) {
+        int index = (y / TILE_ROWS) * mTileCols + (x >>> 6);
+        mDirty[index] = true;
+        for (SnapshotReader reader : mSnapshotReaders) {
+            reader.markTile(index);
+        }
+    }
+
+    /**
+     * Force every tile to be recomputed next generation, for when the
+     * two fields can no longer be trusted to agree.
+     */
+    private void markAllDirty() {
+        java.util.Arrays.fill(mDirty, true);
+        for (SnapshotReader reader : mSnapshotReaders) {
+            reader.markAll();
+        }
+    }
+
+    /**
+     * Transform the active tiles in tile rows <tt>[firstTileRow,
+     * endTileRow)</tt> into the temp field and note which of them changed.
+     * Tile rows are independent of each other, so several can run at
+     * once.
+     *
+     * An inactive tile is left alone in the temp field, which already
+     * holds the same cells as the current one.  That's true because the
+     * tile didn't change in the previous generation, when the temp field
+     * was the current one.
+     *
+     * If <tt>ages</tt> isn't null, each word's ages are brought up to date
+     * as soon as the word has been computed, while it's still at hand.
+     * The living cells of an inactive tile just grow older, until the
+     * tile has been quiet long enough that they must all be
+     * <tt>MAX_AGE</tt> already.
+     *
+     * @return  The change to the field's hash, to be XOR-ed in.
+     */
+    private long transformTiles(int firstTileRow, int endTileRow, byte[][] ages) {
+        long hashChange = 0;
+        long[][] buffers = RuleSet.newRowBuffers(mCells, mTempCells);
+        long[] beforeBuffer = mCells.newRowBuffer();
+        long[] afterBuffer = mTempCells.newRowBuffer();
+        for (int ty = firstTileRow; ty < endTileRow; ty++) {
+            int base = ty * mTileCols;
+            int firstRow = ty * TILE_ROWS;
+            int endRow = Math.min(firstRow + TILE_ROWS, mRows);
+            java.util.Arrays.fill(mNextDirty, base, base + mTileCols, false);
+            for (int t = base; t < base + mTileCols; t++) {
+                mQuiet[t] = (ages == null || mActive[t]) ? 0 : Math.min(mQuiet[t] + 1, MAX_AGE + 1);
+            }
+
+            for (int j = firstRow; j < endRow; j++) {
+                byte[] rowAges = ages != null ? ages[j] : null;
+
+                // Transform each run of active tiles in one go.
+                int tx = 0;
+                while (tx < mTileCols) {
+                    if (!mActive[base + tx]) {
+                        if (rowAges != null && mQuiet[base + tx] <= MAX_AGE) {
+                            long word = mCells.getWord(j, tx);
+                            updateAges(word, word, tx, rowAges);
+                        }
+                        tx++;
+                        continue;
+                    }
+                    int end = tx + 1;
+                    while (end < mTileCols && mActive[base + end]) {
+                        end++;
+                    }
+                    mRuleSet.transformRow(mCells, mTempCells, j, tx, end,
+                                          mGeneration + 1, buffers);
+                    long[] before = mCells.row(j, beforeBuffer, tx, end);
+                    long[] after = mTempCells.row(j, afterBuffer, tx, end);
+                    for (int w = tx; w < end; w++) {
+                        if (before[w] != after[w]) {
+                            mNextDirty[base + w] = true;
+                            int index = j * mTileCols + w;
+                            hashChange ^= BitGrid.wordHash(index, before[w])
+                                    ^ BitGrid.wordHash(index, after[w]);
+                        }
+                        if (rowAges != null) {
+                            updateAges(before[w], after[w], w, rowAges);
+                        }
+                    }
+                    tx = end;
+                }
+            }
+        }
+        return hashChange;
+    }
+
+    /**
+     * Bring the ages of one word's cells up to date.  Dead cells always
+     * have an age of zero, so only cells alive in either generation need
+     * visiting.
+     */
+    private static void updateAges(long before, long after, int w, byte[] ages) {
+        long survivors = before & after;
+        long touched = before | after;
+        while (touched != 0) {
+            long bit = touched & -touched;
+            int i = (w << 6) + Long.numberOfTrailingZeros(bit);
+            if ((survivors & bit) != 0) {
+                if ((ages[i] & 0xff) < MAX_AGE)
+                    ages[i]++;
+            } else {
+                ages[i] = 0;
+            }
+            touched ^= bit;
+        }
+    }
+
+    private void clearAge(int x, int y) {
+        byte[][] ages = mCellAges;
+        if (ages != null) {
+            ages[y][x] = 0;
+        }
+    }
+
+    /**
+     * The number of tile rows a parallel transform hands to a single
+     * task.  Aim for a few stripes per worker, so that a slow one can be
+     * balanced by work stealing.
+     */
+    private int stripeTiles() {
+        return Math.max(1, mTileRows / (mParallelism * 4));
+    }
+
+    /**
+     * Return the number of tiles which were recomputed by the last
+     * generation.  A still or empty region costs nothing once it has
+     * settled, so this is a measure of how much is going on.
+     */
+    public int getActiveTileCount() {
+        return mActiveTiles;
+    }
+
+    /**
+     * Return the total number of tiles in the field.
+     */
+    public int getTileCount() {
+        return mDirty.length;
+    }
+
+    /**
+     * Set the number of threads used to transform the field.  A value of
+     * 1 (the default) transforms on the calling thread; anything higher
+     * splits the field into stripes of rows and transforms them on a
+     * fork/join pool.  Either way, the result is exactly the same.
+     *
+     * @param n The number of threads to use.
+     */
+    public void setParallelism(int n) {
+        n = Math.max(1, n);
+        if (n == mParallelism) { return; }
+
+        if (mPool != null) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mParallelism = n;
+        if (n > 1) {
+            mPool = new ForkJoinPool(n);
+        }
+    }
+
+    /**
+     * Return the number of threads used to transform the field.
+     */
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * A stripe of tile rows to transform, split in half until it is no
+     * more than <tt>mStripe</tt> tiles tall.
+     */
+    private class StripeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mFirst;
+        private final int mEnd;
+        private final int mStripe;
+        private final byte[][] mAges;
+        long mHashChange;
+
+        StripeTask(int first, int end, int stripe, byte[][] ages) {
+            mFirst = first;
+            mEnd = end;
+            mStripe = stripe;
+            mAges = ages;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mFirst <= mStripe) {
+                mHashChange = transformTiles(mFirst, mEnd, mAges);
+            } else {
+                int middle = (mFirst + mEnd) >>> 1;
+                StripeTask top = new StripeTask(mFirst, middle, mStripe, mAges);
+                StripeTask bottom = new StripeTask(middle, mEnd, mStripe, mAges);
+                invokeAll(top, bottom);
+                mHashChange = top.mHashChange ^ bottom.mHashChange;
+            }
+        }
+    }
 
     /**
      * Set the RuleSet which will be used when transforming from one
@@ -202,6 +1006,8 @@ public class CellModel extends java.util.Observable {
      */
     public void setRuleSet(RuleSet rs) {
         mRuleSet = rs;
+        markAllDirty();
+        forgetHashes();
     }
 
     /**
@@ -219,30 +1025,10 @@ public class CellModel extends java.util.Observable {
      * @param pattern   A 2D array of booleans representing the pattern bits.
      */
     public void drawShape(int x, int y, boolean[][] pattern) {
-        int width = Utilities.getWidth(pattern);
-        int height = Utilities.getHeight(pattern);
-
-
-        // On the cell panel, the shape will begin at origin
-        // ((x - width / 2), (y - height / 2))
-        int originX = (x - width / 2);
-        int originY = (y - height / 2);
-
-        // Set the appropriate bits in the mCells array
-        int patternX = 0;
-        outer:
-        for (int i = originX; i < (originX + width) ; i++, patternX++) {
-            int patternY = 0;
-            for (int j = originY; j < (originY + height); j++, patternY++) {
-                if (i < 0 || i > mCols - 1)
-                    continue;
-                if (j < 0 || j > mRows - 1)
-                    continue outer;
-                if (pattern[patternX][patternY])
-                    mCells[i][j] = true;
-            }
-        }
-        setChanged();
-        notifyObservers();
+        // Set the appropriate bits in the mCells field, as one edit;
+        // any which fall off the field are dropped
+        CellEdits edits = new CellEdits();
+        edits.shape(x, y, pattern);
+        apply(edits);
     }
 }
@@ -26,73 +26,288 @@ import java.util.Observer;
 import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
 /**
  * The visual representation of a two dimensional field of cells.  Cells which
  * are alive are represented by a colored rectangle on a background field.
  *
+ * The panel is a viewport onto the field: its size is set independently
+ * of the field's, and it shows the cells from <tt>getFirstCol()</tt> and
+ * <tt>getFirstRow()</tt> onwards at <tt>getCellSize()</tt> pixels each,
+ * so a field much bigger than the screen can be zoomed and panned over.
+ * Zoomed out past a pixel a cell, each pixel stands for a square of
+ * <tt>getShrink()</tt> cells, shaded by how many of them are alive, and
+ * the shading is read from a <tt>DensityPyramid</tt> the painting thread
+ * keeps of the snapshots, so a view of the whole of a huge field costs no
+ * more to draw than the pixels.
+ *
  * @author Seth Morabito
  * @version $Id: CellPanel.java,v 1.10 2003/10/03 23:41:03 sethm Exp $
  */
 public class CellPanel extends Canvas implements Observer {
+    /** The smallest and largest cells, in pixels. */
+    public static final int MIN_CELL_SIZE = 1;
+    public static final int MAX_CELL_SIZE = 64;
+
+    /** The most cells a pixel may stand for across, zoomed out. */
+    public static final int MAX_SHRINK = 4096;
+
     private int mCols;
     private int mRows;
     private int mCellSize;
+    private int mShrink = 1;    // Cells a pixel across, when mCellSize is 1
+    private double mViewX;      // The cell at the left of the view, and how far into it
+    private double mViewY;      // The cell at the top of the view, likewise
 
     private Color mOutlineColor; // Outline color
+    private WritableImage mOutlines;    // The outlines drawn over the cells, or null
+    private int mOutlinesWidth;         // Extent of the lines in mOutlines
+    private int mOutlinesHeight;
     private Color mBackground;
     private Color mForeground;
 
     private CellModel mCellModel;
+    private SnapshotReader mSnapshots;  // Consistent copies of the model to draw
+    private CellSnapshot mFrame;        // The snapshot drawn last
+    private DensityPyramid mPyramid;    // Counts for drawing zoomed out, or null
+    private CellRenderer mRenderer;
+    private final RenderScheduler mScheduler = new RenderScheduler();
 
     private boolean mShowCellOutlines = true; // Show outlines by default
     private boolean mShowAging = false;
 
     public CellPanel() {
         super();
+        mScheduler.addPainter(this::paint);
     }
 
     /**
      * Initialize the cell field with a model. This method will cause the CellPanel
-     * to resize itself.
+     * to resize itself to show the whole field.
      *
      * @param model the model to use
      * @param cellSize the size of a single cell
      */
     public void setModel(CellModel model, int cellSize) {
+        setModel(model, cellSize, cellSize * model.getCols(), cellSize * model.getRows());
+    }
+
+    /**
+     * Initialize the cell field with a model, and resize the panel to
+     * <tt>width</tt> by <tt>height</tt> pixels.  The view starts at the
+     * top left of the field.
+     *
+     * @param model the model to use
+     * @param cellSize the size of a single cell
+     * @param width the width of the panel, in pixels
+     * @param height the height of the panel, in pixels
+     */
+    public void setModel(CellModel model, int cellSize, int width, int height) {
         if (mCellModel != null) {
             mCellModel.deleteObserver(this);
+            mCellModel.removeSnapshotReader(mSnapshots);
         }
         mCellModel = model;
+        mSnapshots = model.newSnapshotReader();
+        mFrame = null;
+        mPyramid = null;
         model.addObserver(this);
+        if (mShowAging) {
+            model.setAgeTracking(true);
+        }
         mCols = model.getCols();
         mRows = model.getRows();
-        mCellSize = cellSize;
+        mCellSize = Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, cellSize));
+        mShrink = 1;
+        mViewX = 0;
+        mViewY = 0;
+        mRenderer = new CellRenderer(width, height);
+        mOutlines = null;
+        mRenderer.setView(0, 0, mCellSize);
 
         // Default colors
         mBackground = Color.WHITE;
         mForeground = Color.BLACK;
+        updateRendererColors();
         setOutline(Color.LIGHTGRAY);
 
-        setWidth(mCellSize * mCols);
-        setHeight(mCellSize * mRows);
+        setWidth(width);
+        setHeight(height);
+
+        if (Platform.isFxApplicationThread()) {
+            mScheduler.start();
+        } else {
+            Platform.runLater(mScheduler::start);
+        }
+    }
+
+    /**
+     * Stop painting, for when the panel is going away.
+     */
+    public void stopRendering() {
+        mScheduler.stop();
+    }
+
+    /**
+     * Add something to run on the FX thread each time the panel paints,
+     * such as a label showing the generation.  At most one frame is
+     * painted per pulse, however fast the model changes.
+     */
+    public void addFrameListener(Runnable listener) {
+        mScheduler.addPainter(listener);
+    }
+
+    /**
+     * Return the number of frames painted.
+     */
+    public long getRenderedFrames() {
+        return mScheduler.getRenderedFrames();
+    }
+
+    /**
+     * Return the number of frames dropped because a newer generation came
+     * along before the screen could show them.
+     */
+    public long getSkippedFrames() {
+        return mScheduler.getSkippedFrames();
     }
 
     public CellModel getModel() {
         return mCellModel;
     }
 
+    /**
+     * Return the snapshot of the model shown by the last frame painted,
+     * or null before the first.  Read it on the FX thread only; it
+     * changes with each frame.
+     */
+    public CellSnapshot getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * Return the size of a cell on screen, in pixels.
+     */
     public int getCellSize() {
         return mCellSize;
     }
 
+    /**
+     * Return the number of cells each pixel stands for across and down,
+     * 1 unless zoomed out past a pixel a cell.
+     */
+    public int getShrink() {
+        return mShrink;
+    }
+
+    /**
+     * Return the column of the cells at the left of the view.  Zoomed
+     * out, this is always a multiple of <tt>getShrink()</tt>.
+     */
+    public int getFirstCol() {
+        return (int) mViewX / mShrink * mShrink;
+    }
+
+    /**
+     * Return the row of the cells at the top of the view, likewise.
+     */
+    public int getFirstRow() {
+        return (int) mViewY / mShrink * mShrink;
+    }
+
+    /**
+     * Return the column of the cell under <tt>x</tt> pixels across the
+     * panel.
+     */
+    public int cellAtX(double x) {
+        return getFirstCol() + (int) Math.floor(x * mShrink / mCellSize);
+    }
+
+    /**
+     * Return the row of the cell under <tt>y</tt> pixels down the panel.
+     */
+    public int cellAtY(double y) {
+        return getFirstRow() + (int) Math.floor(y * mShrink / mCellSize);
+    }
+
+    /**
+     * Drag the field <tt>dx</tt> by <tt>dy</tt> pixels, as far as it
+     * goes.  Movements smaller than a cell are added up.
+     */
+    public void pan(double dx, double dy) {
+        double scale = (double) mShrink / mCellSize;
+        setView(mViewX - dx * scale, mViewY - dy * scale, mCellSize, mShrink);
+    }
+
+    /**
+     * Change the size of a cell on screen, keeping the cell under the
+     * point <tt>(x, y)</tt> of the panel where it is.
+     */
+    public void zoom(int cellSize, double x, double y) {
+        zoom(Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, cellSize)), 1, x, y);
+    }
+
+    /**
+     * Zoom in <tt>steps</tt> steps, or out if it's negative, keeping the
+     * cell under <tt>(x, y)</tt> where it is.  Down to a pixel a cell,
+     * each step changes the cell size by about a quarter; beyond that,
+     * each step halves or doubles the cells per pixel, until the whole
+     * field is in view.
+     */
+    public void zoomStep(int steps, double x, double y) {
+        int size = mCellSize;
+        int shrink = mShrink;
+        for (; steps > 0; steps--) {
+            if (shrink > 1) {
+                shrink /= 2;
+            } else {
+                size = Math.min(MAX_CELL_SIZE, size + Math.max(1, size / 4));
+            }
+        }
+        for (; steps < 0; steps++) {
+            if (size > MIN_CELL_SIZE) {
+                size = Math.max(MIN_CELL_SIZE, size - Math.max(1, size / 5));
+            } else if (shrink < MAX_SHRINK
+                       && ((long) shrink * getWidth() < mCols || (long) shrink * getHeight() < mRows)) {
+                shrink *= 2;
+            }
+        }
+        zoom(size, shrink, x, y);
+    }
+
+    private void zoom(int cellSize, int shrink, double x, double y) {
+        double cellX = mViewX + x * mShrink / mCellSize;
+        double cellY = mViewY + y * mShrink / mCellSize;
+        double scale = (double) shrink / cellSize;
+        setView(cellX - x * scale, cellY - y * scale, cellSize, shrink);
+    }
+
+    /**
+     * Move the view, keeping it over the field.
+     */
+    private void setView(double viewX, double viewY, int cellSize, int shrink) {
+        if (cellSize != mCellSize || shrink != mShrink) {
+            mOutlines = null;
+        }
+        mCellSize = cellSize;
+        mShrink = shrink;
+        double scale = (double) shrink / cellSize;
+        mViewX = Math.max(0, Math.min(viewX, mCols - getWidth() * scale));
+        mViewY = Math.max(0, Math.min(viewY, mRows - getHeight() * scale));
+        mRenderer.setView(getFirstCol(), getFirstRow(), cellSize);
+        schedulePaint();
+    }
+
     public Color getBackground() {
         return mBackground;
     }
 
     public void setBackground(Color c) {
         mBackground = c;
+        updateRendererColors();
         schedulePaint();
     }
 
@@ -102,9 +317,16 @@ public class CellPanel extends Canvas implements Observer {
 
     public void setForeground(Color c) {
         mForeground = c;
+        updateRendererColors();
         schedulePaint();
     }
 
+    private void updateRendererColors() {
+        if (mRenderer != null && mForeground != null && mBackground != null) {
+            mRenderer.setColors(mForeground, mBackground);
+        }
+    }
+
     /**
      * Set the cell outline color.
      *
@@ -112,6 +334,7 @@ public class CellPanel extends Canvas implements Observer {
      */
     public void setOutline(Color c) {
         mOutlineColor = c;
+        mOutlines = null;
         schedulePaint();
     }
 
@@ -129,38 +352,28 @@ public class CellPanel extends Canvas implements Observer {
      */
     @Override
     public void update(Observable t, Object o) {
+        if (o instanceof EditEvent && !isInView((EditEvent) o)) {
+            return;
+        }
         schedulePaint();
     }
 
-    public void schedulePaint() {
-        // cause the cell field to be redrawn.
-        if (Platform.isFxApplicationThread()) {
-            paint();
-        } else {
-            Platform.runLater(this::paint);
-        }
+    /**
+     * Return true if any of the cells edited are on screen.
+     */
+    private boolean isInView(EditEvent e) {
+        double scale = (double) mShrink / mCellSize;
+        return e.intersects(getFirstCol(), getFirstRow(),
+                            getFirstCol() + (int) Math.ceil(getWidth() * scale) + 1,
+                            getFirstRow() + (int) Math.ceil(getHeight() * scale) + 1);
     }
 
     /**
-     * Produce a lighter version of this color.  Not to be confused
-     * with the Color.brighen() method!  This method will return a
-     * color with a higher alpha value based on the percent parameter.
+     * Cause the cell field to be redrawn at the next pulse.  This may be
+     * called from any thread, as often as it likes.
      */
-    private Color lightenColor(Color c, int age) {
-        double red = c.getRed();
-        double green = c.getGreen();
-        double blue = c.getBlue();
-        double alpha = c.getOpacity();
-
-        double p = 1.0 - (0.05 * age);
-
-        if (p > 0.20) {
-            alpha = (p * alpha);
-        } else {
-            alpha = (0.20 * alpha);
-        }
-
-        return new Color(red, green, blue, alpha);
+    public void schedulePaint() {
+        mScheduler.requestFrame();
     }
 
     /**
@@ -170,33 +383,7 @@ public class CellPanel extends Canvas implements Observer {
         if (Platform.isFxApplicationThread()) {
             GraphicsContext g2d = getGraphicsContext2D();
 
-            double width = getWidth();
-            double height = getHeight();
-
-            // Clear the panel.
-            g2d.setFill(getBackground());
-            g2d.fillRect(0, 0, width, height);
-
-            g2d.setFill(getForeground());
-            for (int i = 0; i < mCols; i++) {
-                for (int j = 0; j < mRows; j++) {
-                    if (mCellModel.getCell(i, j)) {
-                        // If cell aging is enabled, draw aged cells
-                        int age = 0;
-                        if (mShowAging) {
-                            age = mCellModel.getCellAge(i, j);
-                            g2d.setFill(lightenColor(getForeground(), age));
-                        }
-                        g2d.fillRect(i * mCellSize,
-                                     j * mCellSize,
-                                     mCellSize,
-                                     mCellSize);
-                        if (mShowAging) {
-                            g2d.setFill(getForeground());
-                        }
-                    }
-                }
-            }
+            paintCells(g2d);
 
             // Show outlines if desired
             if (mShowCellOutlines) {
@@ -205,6 +392,41 @@ public class CellPanel extends Canvas implements Observer {
         }
     }
 
+    /**
+     * Bring the panel's image of the cells up to date and draw it.  This
+     * is the cell loop of <tt>paint()</tt>, kept apart so the benchmarks
+     * can time it.  Only one thread may ever paint: normally the FX
+     * thread, or another thread once <tt>stopRendering()</tt> has taken
+     * effect.
+     */
+    void paintCells(GraphicsContext g2d) {
+        CellSnapshot frame = mSnapshots.latest();
+        if (frame != mFrame && mPyramid != null) {
+            // Marked on every new frame, though only counted zoomed out.
+            mPyramid.markTiles(frame.getChangedTiles());
+        }
+        mFrame = frame;
+        if (mShrink > 1) {
+            if (mPyramid == null) {
+                mPyramid = new DensityPyramid(mCols, mRows);
+            }
+            mPyramid.update(frame);
+            mRenderer.renderOverview(frame, mPyramid, mShrink);
+        } else {
+            mRenderer.render(frame, mShowAging);
+        }
+        g2d.clearRect(0, 0, getWidth(), getHeight());
+        g2d.drawImage(mRenderer.getImage(), 0, 0);
+    }
+
+    /**
+     * Draw every cell again on the next paint, rather than only those
+     * which have changed.
+     */
+    void invalidateCells() {
+        mRenderer.invalidate();
+    }
+
     /**
      * Return the color used to draw the cell outlines.
      *
@@ -215,7 +437,11 @@ public class CellPanel extends Canvas implements Observer {
     }
 
     /**
-     * Enable or disable the display of cell "aging"
+     * Enable or disable the display of cell "aging".  The model only
+     * keeps track of ages while they're being shown, but the panel
+     * doesn't own the thread running the model, so turning tracking on
+     * or off is left to the caller; until it's on, cells are drawn as
+     * if they were all new.
      */
     public void setCellAging(boolean b) {
         mShowAging = b;
@@ -223,26 +449,60 @@ public class CellPanel extends Canvas implements Observer {
     }
 
     /**
-     * Draw a grid showing the outlines of the cells.
+     * Draw a grid showing the outlines of the cells in view.  The grid
+     * only changes with the zoom, the color, or where the field's edge
+     * falls, so it is drawn once into a transparent layer and that is
+     * laid over the cells each frame.
      */
     private void drawCellOutlines(GraphicsContext g2d) {
-        g2d.setStroke(mOutlineColor);
-        g2d.setLineWidth(1);
-
-        double width = getWidth();
-        double height = getHeight();
-
-        // Draw rectangle outlining the entire component
-        g2d.strokeRect(0, 0, width - 1, height - 1);
+        int width = (int) Math.min(getWidth(), (long) (mCols - getFirstCol()) * mCellSize / mShrink);
+        int height = (int) Math.min(getHeight(), (long) (mRows - getFirstRow()) * mCellSize / mShrink);
+        if (mOutlines == null || width != mOutlinesWidth || height != mOutlinesHeight) {
+            mOutlines = buildOutlines(width, height);
+            mOutlinesWidth = width;
+            mOutlinesHeight = height;
+        }
+        g2d.drawImage(mOutlines, 0, 0);
+    }
 
-        // Draw the vertical lines
-        for (int i = 0; i < mCols; i++) {
-            g2d.strokeLine(i * mCellSize, 0, i * mCellSize, height);
+    /**
+     * Draw the outline layer: a line down the left of each column and
+     * along the top of each row, as far as the field goes, and a
+     * rectangle around the whole panel.  Zoomed out to cells of a pixel
+     * or two the lines would hide the cells, so then there's only the
+     * rectangle.
+     */
+    private WritableImage buildOutlines(int width, int height) {
+        int panelWidth = (int) getWidth();
+        int panelHeight = (int) getHeight();
+        int color = CellRenderer.argb(mOutlineColor);
+        int[] pixels = new int[panelWidth * panelHeight];
+        if (mCellSize < 3) {
+            height = 0;
         }
 
-        // Draw the horizontal lines
-        for (int j = 0; j < mRows; j++) {
-            g2d.strokeLine(0, j * mCellSize, width, j * mCellSize);
+        for (int y = 0; y < height; y++) {
+            int row = y * panelWidth;
+            if (y % mCellSize == 0) {
+                java.util.Arrays.fill(pixels, row, row + width, color);
+            } else {
+                for (int x = 0; x < width; x += mCellSize) {
+                    pixels[row + x] = color;
+                }
+            }
         }
+        for (int x = 0; x < panelWidth; x++) {
+            pixels[x] = color;
+            pixels[(panelHeight - 1) * panelWidth + x] = color;
+        }
+        for (int y = 0; y < panelHeight; y++) {
+            pixels[y * panelWidth] = color;
+            pixels[y * panelWidth + panelWidth - 1] = color;
+        }
+
+        WritableImage image = new WritableImage(panelWidth, panelHeight);
+        image.getPixelWriter().setPixels(0, 0, panelWidth, panelHeight,
+                                         PixelFormat.getIntArgbInstance(), pixels, 0, panelWidth);
+        return image;
     }
 }
@@ -0,0 +1,367 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a window onto snapshots of a cell model into an image, a block of pixels per
+ * cell, so that a whole frame goes to the screen in one
+ * <tt>drawImage()</tt>.  The image is the size of the view, not of the
+ * field, so the field can be far bigger than the screen; only the cells
+ * in view are ever looked at.  Drawing from a snapshot rather than the
+ * live model means a frame never shows parts of two generations.
+ *
+ * The renderer remembers the words of cells it last drew, and compares
+ * them with the model's a word at a time, so only the cells which have
+ * changed are written.  The changes in each band of <tt>TILE_ROWS</tt>
+ * rows are gathered into one rectangle, which is all that gets copied
+ * into the image.  When ages are shown a living cell may change color
+ * without changing state, so every word with a living cell in it is
+ * written again.  Moving or zooming the view draws it all again.
+ *
+ * Zoomed out past a pixel a cell, <tt>renderOverview()</tt> instead
+ * shades each pixel by the share of its square of cells which are alive.
+ */
+class CellRenderer {
+    private static final int BAND_ROWS = CellModel.TILE_ROWS;
+
+    /** Cells this old or older are all drawn the same, faded, color. */
+    static final int FADED_AGE = 16;
+
+    /** Shades between an empty and a full square of cells, zoomed out. */
+    private static final int DENSITY_SHADES = 64;
+
+    private final int mWidth;       // Size of the image, in pixels
+    private final int mHeight;
+    private final WritableImage mImage;
+    private final PixelWriter mWriter;
+    private final int[] mPixels;    // The image's pixels, row by row
+    private long[][] mShown;        // The words in view drawn last, indexed [y][word]
+
+    private int mFirstCol;          // The cell at the top left of the view
+    private int mFirstRow;
+    private int mCellSize = 1;      // Pixels per cell
+
+    private int mBackground;        // Colors, as ARGB
+    private int mForeground;
+    private final int[] mAgeColors = new int[FADED_AGE + 1];    // By age, up to FADED_AGE
+    private final int[] mDensityColors = new int[DENSITY_SHADES + 1];
+    private boolean mAging;
+    private boolean mRedrawAll = true;
+
+    private long mCellsWritten;     // Cells drawn by the last render()
+    private int mRegions;           // Rectangles copied by the last render()
+
+    /**
+     * Create a renderer drawing into an image <tt>width</tt> by
+     * <tt>height</tt> pixels.
+     */
+    CellRenderer(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mImage = new WritableImage(width, height);
+        mWriter = mImage.getPixelWriter();
+        mPixels = new int[width * height];
+        setColors(Color.BLACK, Color.WHITE);
+    }
+
+    /**
+     * Set the colors of living cells and of the background.  Everything
+     * will be drawn again on the next <tt>render()</tt>.
+     */
+    void setColors(Color foreground, Color background) {
+        mForeground = argb(foreground);
+        mBackground = argb(background);
+        for (int age = 0; age <= FADED_AGE; age++) {
+            mAgeColors[age] = blend(foreground, agedOpacity(age), background);
+        }
+        mDensityColors[0] = mBackground;
+        for (int shade = 1; shade <= DENSITY_SHADES; shade++) {
+            double live = (double) shade / DENSITY_SHADES;
+            mDensityColors[shade] = blend(foreground, 0.25 + 0.75 * live, background);
+        }
+        invalidate();
+    }
+
+    /**
+     * Show the field from cell <tt>(firstCol, firstRow)</tt> at the top
+     * left, <tt>cellSize</tt> pixels to a cell.
+     */
+    void setView(int firstCol, int firstRow, int cellSize) {
+        if (firstCol == mFirstCol && firstRow == mFirstRow && cellSize == mCellSize) {
+            return;
+        }
+        mFirstCol = firstCol;
+        mFirstRow = firstRow;
+        mCellSize = cellSize;
+        invalidate();
+    }
+
+    /**
+     * Draw everything again on the next <tt>render()</tt>.
+     */
+    void invalidate() {
+        mRedrawAll = true;
+    }
+
+    WritableImage getImage() {
+        return mImage;
+    }
+
+    /**
+     * Bring the image up to date with the model.
+     *
+     * @param aging True to color living cells by their age.
+     */
+    void render(CellSnapshot model, boolean aging) {
+        if (aging != mAging) {
+            mAging = aging;
+            mRedrawAll = true;
+        }
+        int size = mCellSize;
+        int viewCols = Math.max(0, Math.min((mWidth + size - 1) / size, model.getCols() - mFirstCol));
+        int viewRows = Math.max(0, Math.min((mHeight + size - 1) / size, model.getRows() - mFirstRow));
+        int firstWord = mFirstCol >>> 6;
+        int words = viewCols == 0 ? 0 : ((mFirstCol + viewCols - 1) >>> 6) + 1 - firstWord;
+        if (mShown == null || mShown.length != viewRows
+                || (viewRows > 0 && mShown[0].length != words)) {
+            mShown = new long[viewRows][words];
+            mRedrawAll = true;
+        }
+
+        boolean all = mRedrawAll;
+        mRedrawAll = false;
+        mCellsWritten = 0;
+        mRegions = 0;
+        if (all) {
+            // Anything past the edge of the field stays background.
+            java.util.Arrays.fill(mPixels, mBackground);
+        }
+
+        // The cells of the first and last words which are in view.
+        long firstMask = -1L << (mFirstCol & 63);
+        int endCol = mFirstCol + viewCols;
+        long lastMask = (endCol & 63) == 0 ? -1L : (1L << (endCol & 63)) - 1;
+
+        for (int band = 0; band < viewRows; band += BAND_ROWS) {
+            int endRow = Math.min(band + BAND_ROWS, viewRows);
+            int regionFirstCol = endCol;
+            int regionEndCol = mFirstCol;
+            int regionFirstRow = endRow;
+            int regionEndRow = band;
+            for (int v = band; v < endRow; v++) {
+                long[] shown = mShown[v];
+                int y = mFirstRow + v;
+                for (int k = 0; k < words; k++) {
+                    int w = firstWord + k;
+                    long visible = -1L;
+                    if (k == 0) {
+                        visible &= firstMask;
+                    }
+                    if (k == words - 1) {
+                        visible &= lastMask;
+                    }
+                    long word = model.getWord(y, w) & visible;
+                    long cells = all ? visible : (word ^ shown[k]) | (aging ? word : 0L);
+                    if (cells == 0) {
+                        continue;
+                    }
+                    shown[k] = word;
+                    writeCells(model, y, w, word, cells, aging);
+                    regionFirstCol = Math.min(regionFirstCol, Math.max(w << 6, mFirstCol));
+                    regionEndCol = Math.max(regionEndCol, Math.min((w + 1) << 6, endCol));
+                    regionFirstRow = Math.min(regionFirstRow, v);
+                    regionEndRow = v + 1;
+                }
+            }
+            if (!all && regionEndCol > regionFirstCol) {
+                copyRegion((regionFirstCol - mFirstCol) * size, regionFirstRow * size,
+                           (regionEndCol - mFirstCol) * size, regionEndRow * size);
+            }
+        }
+        if (all) {
+            copyRegion(0, 0, mWidth, mHeight);
+        }
+    }
+
+    /**
+     * Draw the whole view with each pixel standing for a square of
+     * <tt>shrink</tt> by <tt>shrink</tt> cells, from the view's first
+     * cell, which must be a multiple of <tt>shrink</tt>.  Squares of 8
+     * cells or more are read from the matching level of the pyramid, so
+     * the cost is in proportion to the pixels however big the field;
+     * smaller ones are counted from the snapshot's words, a few per pixel.
+     *
+     * @param shrink A power of 2.
+     */
+    void renderOverview(CellSnapshot model, DensityPyramid pyramid, int shrink) {
+        int area = shrink * shrink;
+        int firstX = mFirstCol / shrink;
+        int firstY = mFirstRow / shrink;
+        int level = Integer.numberOfTrailingZeros(shrink) - Integer.numberOfTrailingZeros(DensityPyramid.BLOCK);
+        int mask = (1 << shrink) - 1;
+
+        for (int py = 0; py < mHeight; py++) {
+            int row = py * mWidth;
+            for (int px = 0; px < mWidth; px++) {
+                int count;
+                if (level >= 0) {
+                    count = pyramid.getCount(level, firstX + px, firstY + py);
+                } else {
+                    count = countSquare(model, (firstX + px) * shrink, (firstY + py) * shrink, shrink, mask);
+                }
+                mPixels[row + px] = count == 0 ? mBackground
+                        : mDensityColors[1 + (int) ((long) (count - 1) * DENSITY_SHADES / area)];
+            }
+        }
+        mRegions = 0;
+        mCellsWritten = 0;
+        copyRegion(0, 0, mWidth, mHeight);
+
+        // The cell view has to start again from scratch after this.
+        mRedrawAll = true;
+    }
+
+    /**
+     * Count the living cells in the square of <tt>shrink</tt> cells
+     * from <tt>(x, y)</tt>, which lies within a single word of each row.
+     */
+    private static int countSquare(CellSnapshot model, int x, int y, int shrink, int mask) {
+        if (x >= model.getCols() || y >= model.getRows()) {
+            return 0;
+        }
+        int endY = Math.min(y + shrink, model.getRows());
+        int count = 0;
+        for (int r = y; r < endY; r++) {
+            count += Long.bitCount((model.getWord(r, x >>> 6) >>> (x & 63)) & mask);
+        }
+        return count;
+    }
+
+    /**
+     * Write the pixels of the cells of word <tt>w</tt> of row <tt>y</tt>
+     * picked out by <tt>cells</tt>.  Cells at the right and bottom of the
+     * view may be cut off by the edge of the image.
+     */
+    private void writeCells(CellSnapshot model, int y, int w, long word, long cells, boolean aging) {
+        int size = mCellSize;
+        int py = (y - mFirstRow) * size;
+        int height = Math.min(size, mHeight - py);
+        while (cells != 0) {
+            long bit = cells & -cells;
+            int x = (w << 6) + Long.numberOfTrailingZeros(bit);
+            int color;
+            if ((word & bit) == 0) {
+                color = mBackground;
+            } else if (aging) {
+                color = mAgeColors[Math.min(model.getCellAge(x, y), FADED_AGE)];
+            } else {
+                color = mForeground;
+            }
+            int px = (x - mFirstCol) * size;
+            int width = Math.min(size, mWidth - px);
+            int start = py * mWidth + px;
+            for (int j = 0; j < height; j++) {
+                int p = start + j * mWidth;
+                java.util.Arrays.fill(mPixels, p, p + width, color);
+            }
+            cells ^= bit;
+            mCellsWritten++;
+        }
+    }
+
+    /**
+     * Copy the pixels <tt>[x0, x1)</tt> by <tt>[y0, y1)</tt>, as far as
+     * they're in the image, into the image.
+     */
+    private void copyRegion(int x0, int y0, int x1, int y1) {
+        x1 = Math.min(x1, mWidth);
+        y1 = Math.min(y1, mHeight);
+        if (x1 <= x0 || y1 <= y0) {
+            return;
+        }
+        mWriter.setPixels(x0, y0, x1 - x0, y1 - y0,
+                          PixelFormat.getIntArgbInstance(), mPixels,
+                          y0 * mWidth + x0, mWidth);
+        mRegions++;
+    }
+
+    /**
+     * Return the number of cells drawn by the last <tt>render()</tt>.
+     */
+    long getCellsWritten() {
+        return mCellsWritten;
+    }
+
+    /**
+     * Return the number of rectangles copied into the image by the last
+     * <tt>render()</tt>.
+     */
+    int getRegionCount() {
+        return mRegions;
+    }
+
+    /**
+     * The opacity an aged cell is drawn with, as a fraction of the
+     * foreground's own: fading by 5% a generation, down to 20% at
+     * <tt>FADED_AGE</tt>.
+     */
+    static double agedOpacity(int age) {
+        return Math.max(0.20, 1.0 - (0.05 * age));
+    }
+
+    /**
+     * Pack a color into an ARGB int.
+     */
+    static int argb(Color c) {
+        return argb(c.getRed(), c.getGreen(), c.getBlue(), c.getOpacity());
+    }
+
+    private static int argb(double red, double green, double blue, double opacity) {
+        return (channel(opacity) << 24) | (channel(red) << 16)
+                | (channel(green) << 8) | channel(blue);
+    }
+
+    private static int channel(double v) {
+        return (int) Math.round(Math.max(0.0, Math.min(1.0, v)) * 255);
+    }
+
+    /**
+     * The ARGB color of <tt>c</tt>, made <tt>opacity</tt> times as opaque,
+     * drawn over <tt>under</tt>.
+     */
+    static int blend(Color c, double opacity, Color under) {
+        double a = c.getOpacity() * opacity;
+        double b = under.getOpacity() * (1.0 - a);
+        double out = a + b;
+        if (out <= 0) {
+            return 0;
+        }
+        return argb((c.getRed() * a + under.getRed() * b) / out,
+                    (c.getGreen() * a + under.getGreen() * b) / out,
+                    (c.getBlue() * a + under.getBlue() * b) / out,
+                    out);
+    }
+}
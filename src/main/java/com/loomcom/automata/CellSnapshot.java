@@ -0,0 +1,206 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * A read-only copy of a cell model as it stood after one generation, or
+ * after one batch of edits, for reading on another thread while the
+ * model carries on.  Everything in a snapshot belongs to the same
+ * moment, so a renderer, exporter or statistics collector working from
+ * one never sees half of one generation and half of the next.
+ *
+ * Snapshots come from a <tt>SnapshotReader</tt>, which recycles them:
+ * a snapshot stays as it is until the reader it came from is asked for
+ * a newer one.
+ */
+public final class CellSnapshot {
+    private final BitGrid mCells;
+    private byte[][] mAges;         // Copied ages, kept for reuse
+    private boolean mHasAges;       // True if the model was keeping ages
+    private int mGeneration = -1;
+    private long mHash;
+    private RuleSet mRuleSet;
+    private final boolean[] mChanged;   // Tiles changed since the snapshot taken before
+
+    CellSnapshot(int cols, int rows, int tiles) {
+        mCells = new BitGrid(cols, rows);
+        mChanged = new boolean[tiles];
+    }
+
+    /**
+     * Copy the state of a model into the snapshot: the words and ages of
+     * the tiles marked in <tt>stale</tt>, which are then unmarked.  Only
+     * ever done to a snapshot no reader can see.
+     */
+    void fill(BitGrid cells, boolean[] stale, byte[][] ages, int generation, long hash, RuleSet rs) {
+        int cols = cells.getCols();
+        int rows = cells.getRows();
+        int words = cells.getWordCount();
+        long[] buffer = cells.newRowBuffer();
+        mHasAges = ages != null;
+        if (mHasAges && mAges == null) {
+            mAges = new byte[rows][cols];
+        }
+        for (int ty = 0; ty * CellModel.TILE_ROWS < rows; ty++) {
+            int base = ty * words;
+            boolean any = false;
+            for (int tx = 0; tx < words && !any; tx++) {
+                any = stale[base + tx];
+            }
+            if (!any) {
+                continue;
+            }
+            int endRow = Math.min((ty + 1) * CellModel.TILE_ROWS, rows);
+            for (int y = ty * CellModel.TILE_ROWS; y < endRow; y++) {
+                long[] from = cells.row(y, buffer, 0, words);
+                long[] to = mCells.row(y, null, 0, words);
+                for (int tx = 0; tx < words; tx++) {
+                    if (stale[base + tx]) {
+                        to[tx] = from[tx];
+                        if (mHasAges) {
+                            int x = tx << 6;
+                            System.arraycopy(ages[y], x, mAges[y], x, Math.min(64, cols - x));
+                        }
+                    }
+                }
+                mCells.commitRow(y, to, 0, words);
+            }
+            java.util.Arrays.fill(stale, base, base + words, false);
+        }
+        mGeneration = generation;
+        mHash = hash;
+        mRuleSet = rs;
+    }
+
+    /**
+     * Record the tiles changed since the last snapshot was published,
+     * together with those <tt>untaken</tt> changed, if the reader never
+     * took it, so the marks always reach back to the snapshot the reader
+     * took last.
+     */
+    void setChangedTiles(boolean[] changed, CellSnapshot untaken) {
+        for (int t = 0; t < mChanged.length; t++) {
+            mChanged[t] = changed[t] || (untaken != null && untaken.mChanged[t]);
+        }
+    }
+
+    /**
+     * Return which of the model's tiles, counting row by row, changed
+     * between the snapshot the reader took before this one and this one.
+     * Tiles may be marked that didn't really change, but none that did
+     * are missed.
+     */
+    boolean[] getChangedTiles() {
+        return mChanged;
+    }
+
+    public int getCols() {
+        return mCells.getCols();
+    }
+
+    public int getRows() {
+        return mCells.getRows();
+    }
+
+    /**
+     * Return the generation the snapshot was taken at.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Return the model's hash of its living cells, as
+     * <tt>CellModel.getStateHash()</tt> gave it.
+     */
+    public long getStateHash() {
+        return mHash;
+    }
+
+    public RuleSet getRuleSet() {
+        return mRuleSet;
+    }
+
+    /**
+     * Return the value of the cell at <tt>(x,y)</tt>, or false for a
+     * cell outside the field.
+     */
+    public boolean getCell(int x, int y) {
+        if (x < 0 || y < 0 || x > (getCols() - 1) || y > (getRows() - 1))
+            return false;
+
+        return mCells.get(x, y);
+    }
+
+    /**
+     * Return true if the model was keeping track of cell ages.
+     */
+    public boolean hasAges() {
+        return mHasAges;
+    }
+
+    /**
+     * Return the age of the cell at <tt>(x,y)</tt>, as
+     * <tt>CellModel.getCellAge()</tt> did, or 0 if ages weren't kept.
+     */
+    public int getCellAge(int x, int y) {
+        if (!mHasAges || x < 0 || y < 0 || x > (getCols() - 1) || y > (getRows() - 1))
+            return 0;
+
+        return mAges[y][x] & 0xff;
+    }
+
+    /**
+     * Count the living cells.  This looks at every word, so it's the
+     * reader's time it takes, not the model's.
+     */
+    public long getPopulation() {
+        return mCells.getPopulation();
+    }
+
+    /**
+     * Return word <tt>i</tt> of row <tt>y</tt>, holding cells
+     * <tt>64 * i</tt> onwards, for reading the snapshot quickly.
+     */
+    long getWord(int y, int i) {
+        return mCells.getWord(y, i);
+    }
+
+    /**
+     * Copy the living cells into a new model of their own, for code
+     * which takes a model, such as <tt>PatternIO</tt>.
+     */
+    public CellModel toModel() {
+        CellModel model = new CellModel(getCols(), getRows(), mRuleSet);
+        int words = mCells.getWordCount();
+        for (int y = 0; y < getRows(); y++) {
+            for (int w = 0; w < words; w++) {
+                long word = mCells.getWord(y, w);
+                while (word != 0) {
+                    model.putCell((w << 6) + Long.numberOfTrailingZeros(word), y, true);
+                    word &= word - 1;
+                }
+            }
+        }
+        model.cellsChanged();
+        return model;
+    }
+}
@@ -25,14 +25,27 @@ package com.loomcom.automata;
  *
  * Why?  Because.
  *
+ * The random numbers come from a counter-based generator: each word of 64
+ * cells hashes its seed, generation and position into a stream of its
+ * own.  Runs with the same seed are repeatable, and since no state is
+ * shared between words, stripes of the field can be evaluated in any
+ * order, on any number of threads, with the same result.
  *
  * @author Seth Morabito
  * @version $Id: ChanceRuleSet.java,v 1.5 2003/07/09 23:32:49 sethm Exp $
  */
 public class ChanceRuleSet extends RuleSet {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Bits of precision in the birth and survival probabilities. */
+    private static final int CHANCE_BITS = 16;
 
     private double mBp; // "Birth" probability
     private double mSp; // "Survival" probability
+    private final int mBirthOdds;   // mBp, as a fraction of 2^CHANCE_BITS
+    private final int mSurviveOdds; // mSp, likewise
+    private long mSeed;
+    private long mReferenceGeneration;  // Calls to the boolean[][] transform
 
     /**
      *
@@ -52,15 +65,29 @@ public class ChanceRuleSet extends RuleSet {
         super(name, born, survive);
         mBp = bp;
         mSp = sp;
+        mBirthOdds = odds(bp);
+        mSurviveOdds = odds(sp);
+        mSeed = mix(System.nanoTime());
     }
 
 
     public ChanceRuleSet(int[] born, int[] survive,
                          double bp, double sp)
     {
-        super(null, born, survive);
-        mBp = bp;
-        mSp = sp;
+        this(null, born, survive, bp, sp);
+    }
+
+    /**
+     * Set the seed for the random numbers.  Two runs from the same cells
+     * with the same seed will come out the same.
+     */
+    public void setSeed(long seed) {
+        mSeed = seed;
+        mReferenceGeneration = 0;
+    }
+
+    public long getSeed() {
+        return mSeed;
     }
 
     public void transform(boolean[][] from, boolean[][] to) {
@@ -68,30 +95,97 @@ public class ChanceRuleSet extends RuleSet {
 
         int cols = Utilities.getWidth(to);
         int rows = Utilities.getHeight(to);
+        long generation = ++mReferenceGeneration;
 
         for (int i = 0; i < cols; i++) {
             for (int j = 0; j < rows; j++) {
 
                 // Compute a value between 0.0 and 100.0
-                double chance = Math.random() * 100.0;
+                double chance = (stream(generation, i, j) >>> 11) * 0x1.0p-53 * 100.0;
 
                 int count = Utilities.getNeighborCount(from, i, j);
-                boolean val = false;
+                boolean val;
 
                 if (!from[i][j]) {
                     // "Born" rules
-                    for (int k = 0; k < mBornOn.length; k++) {
-                        val |= (count == mBornOn[k] && chance <= mBp);
-                    }
+                    val = ((mBornMask >>> count) & 1) != 0 && chance <= mBp;
                 } else {
                     // "Survive" rules
-                    for (int k = 0; k < mSurviveOn.length; k++) {
-                        val |= (count == mSurviveOn[k] && chance <= mSp);
-                    }
+                    val = ((mSurviveMask >>> count) & 1) != 0 && chance <= mSp;
                 }
 
                 to[i][j] = val;
             }
         }
     }
+
+    @Override
+    public boolean isDeterministic() {
+        return false;
+    }
+
+    @Override
+    protected long evolve(long alive, long s0, long s1, long s2, long s3,
+                          long generation, int wordX, int y) {
+        long born = ~alive & bornOn(s0, s1, s2, s3);
+        long survive = alive & surviveOn(s0, s1, s2, s3);
+        if ((born | survive) == 0) {
+            return 0;
+        }
+
+        long stream = stream(generation, wordX, y);
+        return (born & bernoulli(mBirthOdds, stream))
+                | (survive & bernoulli(mSurviveOdds, stream + CHANCE_BITS * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Convert a percentage into a fraction of 2^CHANCE_BITS.
+     */
+    private static int odds(double p) {
+        double clamped = Math.max(0.0, Math.min(100.0, p));
+        return (int) Math.round(clamped / 100.0 * (1 << CHANCE_BITS));
+    }
+
+    /**
+     * Produce 64 random bits at once, each set with probability
+     * <tt>odds / 2^CHANCE_BITS</tt>.  Working up from the least
+     * significant bit of the odds, each random word is OR-ed in for a 1
+     * and AND-ed in for a 0, which halves the probability so far and adds
+     * the new bit's share.  Trailing zero bits of the odds are skipped.
+     */
+    private static long bernoulli(int odds, long stream) {
+        if (odds <= 0) {
+            return 0L;
+        }
+        if (odds >= (1 << CHANCE_BITS)) {
+            return -1L;
+        }
+
+        long mask = 0;
+        for (int bit = Integer.numberOfTrailingZeros(odds); bit < CHANCE_BITS; bit++) {
+            long r = mix(stream + (bit + 1) * GOLDEN_GAMMA);
+            mask = ((odds >>> bit) & 1) != 0 ? (mask | r) : (mask & r);
+        }
+        return mask;
+    }
+
+    /**
+     * The start of the random stream belonging to word <tt>wordX</tt> of
+     * row <tt>y</tt> in the given generation.
+     */
+    private long stream(long generation, int wordX, int y) {
+        long h = mix(mSeed + generation * GOLDEN_GAMMA);
+        h = mix(h + ((long) y << 32 | (wordX & 0xffffffffL)));
+        return h;
+    }
+
+    /**
+     * The SplitMix64 finalizer, which scrambles a counter into 64 bits
+     * that pass for random.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 }
@@ -0,0 +1,241 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * Population counts of a cell snapshot at several scales, for drawing a
+ * field zoomed out so far that many cells fall on each pixel.  Level 0
+ * counts the living cells in each square block of <tt>BLOCK</tt> by
+ * <tt>BLOCK</tt> cells, and each level above counts blocks twice as wide
+ * and high, the sum of four blocks of the level below, up to a single
+ * block covering the whole field.  Level 3 blocks are exactly the
+ * model's 64 by 64 cell tiles.
+ *
+ * The pyramid belongs to whoever reads the snapshots, and is only
+ * touched by the reading thread.  Each snapshot taken from a
+ * <tt>SnapshotReader</tt> says which tiles changed since the one taken
+ * before it; marking those and calling <tt>update()</tt> recounts only
+ * those tiles and the blocks above them, so keeping the pyramid up to
+ * date costs in proportion to the activity, not the size of the field.
+ */
+public class DensityPyramid {
+    /** Width and height of a level 0 block, in cells. */
+    public static final int BLOCK = 8;
+
+    /** The level whose blocks are the model's tiles. */
+    private static final int TILE_LEVEL = 3;
+
+    private final int mRows;
+    private final int mTileCols;
+    private final int mTileRows;
+
+    private final byte[] mLevel0;       // Level 0 counts, at most 64 each
+    private final int[][] mLevels;      // Counts of levels 1 and up; mLevels[0] is unused
+    private final int[] mLevelCols;     // Blocks across each level
+    private final int[] mLevelRows;     // Blocks down each level
+    private final boolean[][] mUpper;   // Blocks above the tile level to recount
+
+    private final boolean[] mStale;     // Tiles changed since the last update
+    private boolean mAnyStale;
+
+    /**
+     * Create a pyramid for a field <tt>cols</tt> by <tt>rows</tt> cells.
+     * Every tile starts out needing counting.
+     */
+    public DensityPyramid(int cols, int rows) {
+        mRows = rows;
+        mTileCols = (cols + 63) >>> 6;
+        mTileRows = (rows + CellModel.TILE_ROWS - 1) / CellModel.TILE_ROWS;
+
+        int levels = 1;
+        while (Math.max(cols, rows) > BLOCK << (levels - 1)) {
+            levels++;
+        }
+        levels = Math.max(levels, TILE_LEVEL + 1);
+        mLevelCols = new int[levels];
+        mLevelRows = new int[levels];
+        mLevels = new int[levels][];
+        mUpper = new boolean[levels][];
+        for (int k = 0; k < levels; k++) {
+            int size = BLOCK << k;
+            mLevelCols[k] = (cols + size - 1) / size;
+            mLevelRows[k] = (rows + size - 1) / size;
+            if (k > 0) {
+                mLevels[k] = new int[mLevelCols[k] * mLevelRows[k]];
+            }
+            if (k > TILE_LEVEL) {
+                mUpper[k] = new boolean[mLevels[k].length];
+            }
+        }
+        mLevel0 = new byte[mLevelCols[0] * mLevelRows[0]];
+
+        mStale = new boolean[mTileCols * mTileRows];
+        markAll();
+    }
+
+    /**
+     * Return the number of levels, the top one a single block.
+     */
+    public int getLevelCount() {
+        return mLevelCols.length;
+    }
+
+    /**
+     * Return the width of a block at level <tt>k</tt>, in cells.
+     */
+    public static int blockSize(int k) {
+        return BLOCK << k;
+    }
+
+    /**
+     * Return the number of living cells in block <tt>(bx, by)</tt> of
+     * level <tt>k</tt>, or 0 for a block outside the field.  Levels past
+     * the top have the whole field in their first block.
+     */
+    public int getCount(int k, int bx, int by) {
+        if (k >= mLevelCols.length) {
+            return bx == 0 && by == 0 ? getCount(mLevelCols.length - 1, 0, 0) : 0;
+        }
+        if (bx < 0 || by < 0 || bx >= mLevelCols[k] || by >= mLevelRows[k]) {
+            return 0;
+        }
+        int index = by * mLevelCols[k] + bx;
+        return k == 0 ? mLevel0[index] : mLevels[k][index];
+    }
+
+    /**
+     * Note that the tiles set in <tt>changed</tt> have changed.
+     */
+    void markTiles(boolean[] changed) {
+        boolean any = false;
+        for (int t = 0; t < changed.length; t++) {
+            if (changed[t]) {
+                mStale[t] = true;
+                any = true;
+            }
+        }
+        if (any) {
+            mAnyStale = true;
+        }
+    }
+
+    /**
+     * Note that every tile has changed.
+     */
+    void markAll() {
+        java.util.Arrays.fill(mStale, true);
+        mAnyStale = true;
+    }
+
+    /**
+     * Recount the tiles marked since the last update, and the blocks
+     * above them, from <tt>snapshot</tt>.
+     */
+    public void update(CellSnapshot snapshot) {
+        if (!mAnyStale) {
+            return;
+        }
+        mAnyStale = false;
+
+        for (int ty = 0; ty < mTileRows; ty++) {
+            for (int tx = 0; tx < mTileCols; tx++) {
+                int t = ty * mTileCols + tx;
+                if (!mStale[t]) {
+                    continue;
+                }
+                mStale[t] = false;
+                countTile(snapshot, tx, ty);
+                if (TILE_LEVEL + 1 < mLevels.length) {
+                    int k = TILE_LEVEL + 1;
+                    mUpper[k][(ty >> 1) * mLevelCols[k] + (tx >> 1)] = true;
+                }
+            }
+        }
+
+        // Work up the levels above the tiles, recounting marked blocks.
+        for (int k = TILE_LEVEL + 1; k < mLevels.length; k++) {
+            boolean[] marked = mUpper[k];
+            for (int by = 0; by < mLevelRows[k]; by++) {
+                for (int bx = 0; bx < mLevelCols[k]; bx++) {
+                    int index = by * mLevelCols[k] + bx;
+                    if (!marked[index]) {
+                        continue;
+                    }
+                    marked[index] = false;
+                    sumChildren(k, bx, by);
+                    if (k + 1 < mLevels.length) {
+                        mUpper[k + 1][(by >> 1) * mLevelCols[k + 1] + (bx >> 1)] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the level 0 blocks of one tile from the snapshot's words, a
+     * byte of each word at a time, then sum them up to the tile level.
+     */
+    private void countTile(CellSnapshot snapshot, int tx, int ty) {
+        int perTile = CellModel.TILE_ROWS / BLOCK;
+        int firstRow = ty * CellModel.TILE_ROWS;
+        int endRow = Math.min(firstRow + CellModel.TILE_ROWS, mRows);
+        int cols0 = mLevelCols[0];
+        int firstBlockX = tx * perTile;
+        int endBlockX = Math.min(firstBlockX + perTile, cols0);
+
+        for (int by = firstRow / BLOCK; by * BLOCK < endRow; by++) {
+            java.util.Arrays.fill(mLevel0, by * cols0 + firstBlockX, by * cols0 + endBlockX, (byte) 0);
+        }
+        for (int y = firstRow; y < endRow; y++) {
+            long word = snapshot.getWord(y, tx);
+            if (word == 0) {
+                continue;
+            }
+            int row = (y / BLOCK) * cols0;
+            for (int bx = firstBlockX; bx < endBlockX; bx++) {
+                mLevel0[row + bx] += Long.bitCount((word >>> ((bx - firstBlockX) * BLOCK)) & 0xFF);
+            }
+        }
+
+        for (int k = 1; k <= TILE_LEVEL; k++) {
+            int per = perTile >> k;
+            int firstX = tx * per;
+            int endX = Math.min(firstX + per, mLevelCols[k]);
+            int firstY = ty * per;
+            int endY = Math.min(firstY + per, mLevelRows[k]);
+            for (int by = firstY; by < endY; by++) {
+                for (int bx = firstX; bx < endX; bx++) {
+                    sumChildren(k, bx, by);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set block <tt>(bx, by)</tt> of level <tt>k</tt> to the sum of the
+     * four blocks under it.
+     */
+    private void sumChildren(int k, int bx, int by) {
+        mLevels[k][by * mLevelCols[k] + bx] =
+                getCount(k - 1, 2 * bx, 2 * by) + getCount(k - 1, 2 * bx + 1, 2 * by)
+                + getCount(k - 1, 2 * bx, 2 * by + 1) + getCount(k - 1, 2 * bx + 1, 2 * by + 1);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * Tells the observers of a <tt>CellModel</tt> that cells were edited, and
+ * where.  It is passed as the argument of <tt>notifyObservers()</tt> once
+ * for each edit or batch of edits, with the smallest rectangle holding
+ * every cell that was set, so an observer can tell whether the part of
+ * the field it cares about was touched.
+ */
+public class EditEvent {
+    private final int mFirstCol;
+    private final int mFirstRow;
+    private final int mEndCol;
+    private final int mEndRow;
+    private final int mCellCount;
+
+    EditEvent(int firstCol, int firstRow, int endCol, int endRow, int cellCount) {
+        mFirstCol = firstCol;
+        mFirstRow = firstRow;
+        mEndCol = endCol;
+        mEndRow = endRow;
+        mCellCount = cellCount;
+    }
+
+    /**
+     * The leftmost column edited.
+     */
+    public int getFirstCol() {
+        return mFirstCol;
+    }
+
+    /**
+     * The top row edited.
+     */
+    public int getFirstRow() {
+        return mFirstRow;
+    }
+
+    /**
+     * One past the rightmost column edited.
+     */
+    public int getEndCol() {
+        return mEndCol;
+    }
+
+    /**
+     * One past the bottom row edited.
+     */
+    public int getEndRow() {
+        return mEndRow;
+    }
+
+    /**
+     * The number of cells set, counting a cell set twice twice.
+     */
+    public int getCellCount() {
+        return mCellCount;
+    }
+
+    /**
+     * Return true if any of the edited rectangle lies within the cells
+     * <tt>[firstCol, endCol)</tt> by <tt>[firstRow, endRow)</tt>.
+     */
+    public boolean intersects(int firstCol, int firstRow, int endCol, int endRow) {
+        return mFirstCol < endCol && firstCol < mEndCol
+                && mFirstRow < endRow && firstRow < mEndRow;
+    }
+
+    @Override
+    public String toString() {
+        return mCellCount + " cells edited in [" + mFirstCol + ", " + mEndCol
+                + ") x [" + mFirstRow + ", " + mEndRow + ")";
+    }
+}
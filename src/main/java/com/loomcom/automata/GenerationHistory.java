@@ -0,0 +1,360 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bounded record of past generations of a <tt>CellModel</tt>, so that
+ * the model can be wound back to any of them with
+ * <tt>CellModel.seek()</tt>.
+ *
+ * The record is a series of segments, each a keyframe holding a whole
+ * generation followed by the deltas leading on from it: the words which
+ * changed from one generation to the next, XOR-ed with their old
+ * contents.  Keyframes and deltas are both stored sparsely, as a list of
+ * changed words, so an empty field or a quiet generation costs next to
+ * nothing.  Seeking decodes the nearest keyframe at or before the
+ * generation wanted and replays the deltas after it.
+ *
+ * When the history grows past its memory budget, the oldest segments are
+ * dropped.
+ */
+public class GenerationHistory {
+    /** Memory budget used by the no-argument constructor: 64MB. */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+
+    /** Generations per keyframe used by the no-argument constructor. */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+    /** Rough cost of an array or object on top of its contents. */
+    private static final int OVERHEAD = 16;
+
+    private final long mBudget;
+    private final int mKeyframeInterval;
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+    private long mBytes;
+
+    /**
+     * Create a history with the default budget and keyframe interval.
+     */
+    public GenerationHistory() {
+        this(DEFAULT_BUDGET, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Create a history.
+     *
+     * @param budget            The most memory, in bytes, to use.
+     * @param keyframeInterval  The number of generations from one keyframe
+     *                          to the next.  More means smaller histories
+     *                          and slower seeks.
+     */
+    public GenerationHistory(long budget, int keyframeInterval) {
+        if (budget <= 0 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("The budget and keyframe interval must be positive");
+        }
+        mBudget = budget;
+        mKeyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Return the oldest generation held, or -1 if the history is empty.
+     */
+    public synchronized int getOldestGeneration() {
+        return mSegments.isEmpty() ? -1 : mSegments.getFirst().mFirst;
+    }
+
+    /**
+     * Return the newest generation held, or -1 if the history is empty.
+     */
+    public synchronized int getNewestGeneration() {
+        return mSegments.isEmpty() ? -1 : mSegments.getLast().newest();
+    }
+
+    /**
+     * Return true if <tt>generation</tt> can be sought to.
+     */
+    public synchronized boolean contains(int generation) {
+        return find(generation) != null;
+    }
+
+    /**
+     * Return roughly how many bytes the history is using.
+     */
+    public synchronized long getMemoryUsed() {
+        return mBytes;
+    }
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+    public int getKeyframeInterval() {
+        return mKeyframeInterval;
+    }
+
+    /**
+     * Forget every generation.
+     */
+    public synchronized void clear() {
+        mSegments.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Forget <tt>generation</tt> and everything after it.
+     */
+    synchronized void truncate(int generation) {
+        while (!mSegments.isEmpty()) {
+            Segment last = mSegments.getLast();
+            if (last.mFirst >= generation) {
+                mSegments.removeLast();
+                mBytes -= last.mBytes;
+            } else {
+                mBytes -= last.truncate(generation);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Return true if a delta for <tt>generation</tt> would follow on from
+     * the newest generation held, in a segment with room for it.
+     */
+    synchronized boolean canAppend(int generation) {
+        if (mSegments.isEmpty()) {
+            return false;
+        }
+        Segment last = mSegments.getLast();
+        return last.newest() == generation - 1 && last.mDeltas.size() < mKeyframeInterval - 1;
+    }
+
+    /**
+     * Start a new segment with the whole of <tt>cells</tt> as
+     * <tt>generation</tt>.
+     */
+    synchronized void putKeyframe(int generation, BitGrid cells) {
+        Encoder keyframe = new Encoder();
+        int words = cells.getWordCount();
+        long[] buffer = cells.newRowBuffer();
+        for (int j = 0; j < cells.getRows(); j++) {
+            long[] row = cells.row(j, buffer, 0, words);
+            for (int i = 0; i < words; i++) {
+                if (row[i] != 0) {
+                    keyframe.put((long) j * words + i, row[i]);
+                }
+            }
+        }
+        Segment segment = new Segment(generation, keyframe.toArray());
+        mSegments.addLast(segment);
+        mBytes += segment.mBytes;
+        evict();
+    }
+
+    /**
+     * Add the changes leading to <tt>generation</tt>, which must be
+     * allowed by <tt>canAppend()</tt>.
+     */
+    synchronized void putDelta(int generation, Encoder delta) {
+        mBytes += mSegments.getLast().add(delta.toArray());
+        evict();
+    }
+
+    /**
+     * Write <tt>generation</tt> into <tt>cells</tt>, replacing what was
+     * there.
+     *
+     * @return  False, leaving <tt>cells</tt> alone, if the generation
+     *          isn't held.
+     */
+    synchronized boolean restore(int generation, BitGrid cells) {
+        Segment segment = find(generation);
+        if (segment == null) {
+            return false;
+        }
+
+        cells.clear();
+        apply(segment.mKeyframe, cells);
+        for (int k = 0; k < generation - segment.mFirst; k++) {
+            apply(segment.mDeltas.get(k), cells);
+        }
+        return true;
+    }
+
+    /**
+     * XOR the words listed in <tt>data</tt> into the cells.
+     */
+    private static void apply(byte[] data, BitGrid cells) {
+        int words = cells.getWordCount();
+        Decoder in = new Decoder(data);
+        long[] buffer = cells.newRowBuffer();
+        while (in.hasMore()) {
+            long index = in.nextIndex();
+            long change = in.nextWord();
+            int y = (int) (index / words);
+            int i = (int) (index % words);
+            long[] row = cells.row(y, buffer, i, i + 1);
+            row[i] ^= change;
+            cells.commitRow(y, row, i, i + 1);
+        }
+    }
+
+    private Segment find(int generation) {
+        Iterator<Segment> it = mSegments.descendingIterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.mFirst <= generation) {
+                return generation <= segment.newest() ? segment : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop the oldest segments until the history fits its budget, always
+     * keeping the newest.
+     */
+    private void evict() {
+        while (mBytes > mBudget && mSegments.size() > 1) {
+            mBytes -= mSegments.removeFirst().mBytes;
+        }
+    }
+
+    /**
+     * A keyframe and the deltas following it.
+     */
+    private static class Segment {
+        final int mFirst;       // Generation of the keyframe
+        final byte[] mKeyframe;
+        final List<byte[]> mDeltas = new ArrayList<>();
+        long mBytes;
+
+        Segment(int first, byte[] keyframe) {
+            mFirst = first;
+            mKeyframe = keyframe;
+            mBytes = OVERHEAD * 4 + keyframe.length;
+        }
+
+        int newest() {
+            return mFirst + mDeltas.size();
+        }
+
+        long add(byte[] delta) {
+            mDeltas.add(delta);
+            long bytes = OVERHEAD + 8 + delta.length;
+            mBytes += bytes;
+            return bytes;
+        }
+
+        /**
+         * Drop the deltas for <tt>generation</tt> onwards.
+         *
+         * @return  The number of bytes freed.
+         */
+        long truncate(int generation) {
+            long freed = 0;
+            while (newest() >= generation) {
+                byte[] delta = mDeltas.remove(mDeltas.size() - 1);
+                freed += OVERHEAD + 8 + delta.length;
+            }
+            mBytes -= freed;
+            return freed;
+        }
+    }
+
+    /**
+     * Builds a list of changed words: for each, the gap since the last
+     * word's index as a variable length number, then the 64 bits of the
+     * change.  Indexes must be added in increasing order.
+     */
+    static class Encoder {
+        private byte[] mData = new byte[64];
+        private int mLength;
+        private long mLastIndex = -1;
+
+        void put(long index, long word) {
+            ensure(18);
+            long gap = index - mLastIndex - 1;
+            mLastIndex = index;
+            while ((gap & ~0x7fL) != 0) {
+                mData[mLength++] = (byte) ((gap & 0x7f) | 0x80);
+                gap >>>= 7;
+            }
+            mData[mLength++] = (byte) gap;
+            for (int shift = 0; shift < 64; shift += 8) {
+                mData[mLength++] = (byte) (word >>> shift);
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(mData, mLength);
+        }
+
+        private void ensure(int more) {
+            if (mLength + more > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mLength + more));
+            }
+        }
+    }
+
+    /**
+     * Reads back what an <tt>Encoder</tt> wrote.
+     */
+    private static class Decoder {
+        private final byte[] mData;
+        private int mPosition;
+        private long mLastIndex = -1;
+
+        Decoder(byte[] data) {
+            mData = data;
+        }
+
+        boolean hasMore() {
+            return mPosition < mData.length;
+        }
+
+        long nextIndex() {
+            long gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mData[mPosition++];
+                gap |= (b & 0x7fL) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            mLastIndex += gap + 1;
+            return mLastIndex;
+        }
+
+        long nextWord() {
+            long word = 0;
+            for (int shift = 0; shift < 64; shift += 8) {
+                word |= (mData[mPosition++] & 0xffL) << shift;
+            }
+            return word;
+        }
+    }
+}
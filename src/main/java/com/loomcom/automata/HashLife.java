@@ -0,0 +1,523 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * Bill Gosper's HashLife, an alternative to the <tt>CellModel</tt> for
+ * very long runs.  The universe is an unbounded plane stored as a
+ * quadtree.  Identical subtrees are shared by keeping every node in a
+ * hash table, and the future of each node is memoized, so repetitive
+ * patterns can be advanced by enormous numbers of generations at once.
+ *
+ * Any totalistic B/S <tt>RuleSet</tt> may be used, except for rules in
+ * which empty space comes to life (B0), which have no sensible meaning on
+ * an infinite plane, and probabilistic rules.
+ *
+ * Coordinates are centered on the origin, so cell <tt>(0,0)</tt> is in the
+ * middle of the universe and negative coordinates are allowed.
+ */
+public class HashLife {
+    private static final int DEFAULT_MAX_NODES = 1 << 21;
+
+    /** The highest node level; a step of 2^k needs a root of level k + 3. */
+    private static final int MAX_LEVEL = 63;
+
+    /** The biggest step, as a power of two, that <tt>step()</tt> may take. */
+    public static final int MAX_STEP_LOG = MAX_LEVEL - 3;
+
+    private static final Node DEAD = new Node(false);
+    private static final Node ALIVE = new Node(true);
+
+    private final int mBornMask;
+    private final int mSurviveMask;
+
+    private Node[] mTable = new Node[1 << 16];   // Canonical nodes
+    private int mNodeCount;
+    private int mMaxNodes = DEFAULT_MAX_NODES;
+    private Node[] mEmpty = new Node[MAX_LEVEL + 1];  // Empty node for each level
+    private int mMark;                          // Current GC mark
+
+    private Node mRoot;
+    private int mStepLog;       // Each step advances 2^mStepLog generations
+    private long mGeneration;
+
+    /**
+     * Create an empty universe governed by the given rule.
+     *
+     * @param rs        The rule set; must be deterministic and not B0.
+     */
+    public HashLife(RuleSet rs) {
+        if (rs instanceof ChanceRuleSet) {
+            throw new IllegalArgumentException("HashLife needs a deterministic rule: " + rs.getName());
+        }
+        if ((rs.mBornMask & 1) != 0) {
+            throw new IllegalArgumentException("HashLife can't run B0 rules: " + rs.getName());
+        }
+        mBornMask = rs.mBornMask;
+        mSurviveMask = rs.mSurviveMask;
+        mRoot = empty(3);
+    }
+
+    /**
+     * Return the boolean value of the cell at <tt>(x,y)</tt>.
+     */
+    public boolean getCell(long x, long y) {
+        Node n = mRoot;
+        long half = 1L << (n.level - 1);
+        if (x < -half || y < -half || x >= half || y >= half) {
+            return false;
+        }
+        while (n.level > 1) {
+            if (n.population == 0) {
+                return false;
+            }
+            long q = 1L << (n.level - 2);
+            if (y < 0) {
+                n = x < 0 ? n.nw : n.ne;
+                y += q;
+            } else {
+                n = x < 0 ? n.sw : n.se;
+                y -= q;
+            }
+            x += x < 0 ? q : -q;
+        }
+        if (y < 0) {
+            return (x < 0 ? n.nw : n.ne).alive;
+        }
+        return (x < 0 ? n.sw : n.se).alive;
+    }
+
+    /**
+     * Set the cell at <tt>(x,y)</tt> with the supplied boolean value.  The
+     * universe grows as needed to hold it.
+     */
+    public void setCell(long x, long y, boolean b) {
+        while (true) {
+            long half = 1L << (mRoot.level - 1);
+            if (x >= -half && y >= -half && x < half && y < half) {
+                break;
+            }
+            mRoot = expand(mRoot);
+        }
+        mRoot = setCell(mRoot, x, y, b);
+    }
+
+    private Node setCell(Node n, long x, long y, boolean b) {
+        if (n.level == 1) {
+            Node leaf = b ? ALIVE : DEAD;
+            if (y < 0) {
+                return x < 0 ? node(leaf, n.ne, n.sw, n.se) : node(n.nw, leaf, n.sw, n.se);
+            }
+            return x < 0 ? node(n.nw, n.ne, leaf, n.se) : node(n.nw, n.ne, n.sw, leaf);
+        }
+
+        long q = 1L << (n.level - 2);
+        long cx = x < 0 ? x + q : x - q;
+        long cy = y < 0 ? y + q : y - q;
+        if (y < 0) {
+            if (x < 0) {
+                return node(setCell(n.nw, cx, cy, b), n.ne, n.sw, n.se);
+            }
+            return node(n.nw, setCell(n.ne, cx, cy, b), n.sw, n.se);
+        }
+        if (x < 0) {
+            return node(n.nw, n.ne, setCell(n.sw, cx, cy, b), n.se);
+        }
+        return node(n.nw, n.ne, n.sw, setCell(n.se, cx, cy, b));
+    }
+
+    /**
+     * Copy the living cells of a <tt>CellModel</tt> into this universe,
+     * with the model's top left corner at <tt>(originX, originY)</tt>.
+     */
+    public void load(CellModel model, long originX, long originY) {
+        for (int j = 0; j < model.getRows(); j++) {
+            for (int i = 0; i < model.getCols(); i++) {
+                if (model.getCell(i, j)) {
+                    setCell(originX + i, originY + j, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the window of this universe with its top left corner at
+     * <tt>(originX, originY)</tt> into a <tt>CellModel</tt>, replacing
+     * whatever the model held.  The model's observers are told once, at
+     * the end.
+     */
+    public void store(CellModel model, long originX, long originY) {
+        for (int j = 0; j < model.getRows(); j++) {
+            for (int i = 0; i < model.getCols(); i++) {
+                model.putCell(i, j, getCell(originX + i, originY + j));
+            }
+        }
+        model.cellsChanged();
+    }
+
+    /**
+     * Empty the universe and set the generation count back to 0.
+     */
+    public void clear() {
+        mRoot = empty(3);
+        mGeneration = 0;
+    }
+
+    /**
+     * Set how far each call to <tt>step()</tt> goes.
+     *
+     * @param k Each step will advance <tt>2^k</tt> generations.
+     */
+    public void setStepLog(int k) {
+        if (k < 0 || k > MAX_STEP_LOG) {
+            throw new IllegalArgumentException("Step must be between 2^0 and 2^" + MAX_STEP_LOG + ": " + k);
+        }
+        if (k != mStepLog) {
+            // Memoized results are only good for the step they were made with.
+            mStepLog = k;
+            clearResults();
+        }
+    }
+
+    public int getStepLog() {
+        return mStepLog;
+    }
+
+    /**
+     * Advance the universe by <tt>2^getStepLog()</tt> generations.
+     */
+    public void step() {
+        if (mNodeCount > mMaxNodes) {
+            collectGarbage();
+        }
+
+        // Pad the universe until the pattern can't reach the edge of
+        // the part of it we'll get back.
+        while (mRoot.level < mStepLog + 3 || !isPadded(mRoot)) {
+            mRoot = expand(mRoot);
+        }
+        mRoot = result(mRoot);
+        mGeneration += 1L << mStepLog;
+    }
+
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    public long getPopulation() {
+        return mRoot.population;
+    }
+
+    /**
+     * Return the number of distinct nodes in the cache.
+     */
+    public int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /**
+     * Set the number of cached nodes above which a garbage collection is
+     * done before the next step.  Only the nodes making up the current
+     * universe, and whatever memoized results point into them, survive.
+     */
+    public void setMaxNodes(int n) {
+        mMaxNodes = n;
+    }
+
+    public int getMaxNodes() {
+        return mMaxNodes;
+    }
+
+    /**
+     * True if all the living cells of <tt>n</tt> are in its central
+     * sixteenth.
+     */
+    private static boolean isPadded(Node n) {
+        return n.nw.se.se.population + n.ne.sw.sw.population
+                + n.sw.ne.ne.population + n.se.nw.nw.population == n.population;
+    }
+
+    /**
+     * Surround a node with empty space, giving a node one level up with
+     * the same center.
+     */
+    private Node expand(Node n) {
+        Node e = empty(n.level - 1);
+        return node(node(e, e, e, n.nw), node(e, e, n.ne, e),
+                    node(e, n.sw, e, e), node(n.se, e, e, e));
+    }
+
+    /**
+     * The central node one level down, without advancing in time.
+     */
+    private Node centered(Node n) {
+        return node(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+    }
+
+    /**
+     * The central node one level down, advanced by
+     * <tt>2^min(level - 2, mStepLog)</tt> generations.
+     */
+    private Node result(Node n) {
+        if (n.result != null) {
+            return n.result;
+        }
+
+        Node r;
+        if (n.population == 0) {
+            r = empty(n.level - 1);
+        } else if (n.level == 2) {
+            r = slowResult(n);
+        } else {
+            // The nine overlapping sub-squares, one level down.
+            Node n00 = n.nw;
+            Node n01 = node(n.nw.ne, n.ne.nw, n.nw.se, n.ne.sw);
+            Node n02 = n.ne;
+            Node n10 = node(n.nw.sw, n.nw.se, n.sw.nw, n.sw.ne);
+            Node n11 = node(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+            Node n12 = node(n.ne.sw, n.ne.se, n.se.nw, n.se.ne);
+            Node n20 = n.sw;
+            Node n21 = node(n.sw.ne, n.se.nw, n.sw.se, n.se.sw);
+            Node n22 = n.se;
+
+            if (mStepLog >= n.level - 2) {
+                // Full speed: advance both halves of the step.
+                n00 = result(n00);
+                n01 = result(n01);
+                n02 = result(n02);
+                n10 = result(n10);
+                n11 = result(n11);
+                n12 = result(n12);
+                n20 = result(n20);
+                n21 = result(n21);
+                n22 = result(n22);
+            } else {
+                // The step is smaller than this node allows, so the first
+                // half just takes the centers.
+                n00 = centered(n00);
+                n01 = centered(n01);
+                n02 = centered(n02);
+                n10 = centered(n10);
+                n11 = centered(n11);
+                n12 = centered(n12);
+                n20 = centered(n20);
+                n21 = centered(n21);
+                n22 = centered(n22);
+            }
+
+            r = node(result(node(n00, n01, n10, n11)),
+                     result(node(n01, n02, n11, n12)),
+                     result(node(n10, n11, n20, n21)),
+                     result(node(n11, n12, n21, n22)));
+        }
+
+        n.result = r;
+        return r;
+    }
+
+    /**
+     * Advance the 2x2 center of a 4x4 node by one generation, the hard
+     * way.
+     */
+    private Node slowResult(Node n) {
+        // Pack the 4x4 block into 16 bits, row by row, top left in bit 0.
+        int bits = 0;
+        Node[] quads = { n.nw, n.ne, n.sw, n.se };
+        for (int q = 0; q < 4; q++) {
+            Node quad = quads[q];
+            int x = (q & 1) * 2;
+            int y = (q >> 1) * 2;
+            Node[] cells = { quad.nw, quad.ne, quad.sw, quad.se };
+            for (int c = 0; c < 4; c++) {
+                if (cells[c].alive) {
+                    bits |= 1 << ((y + (c >> 1)) * 4 + x + (c & 1));
+                }
+            }
+        }
+        return node(nextCell(bits, 1, 1), nextCell(bits, 2, 1),
+                    nextCell(bits, 1, 2), nextCell(bits, 2, 2));
+    }
+
+    private Node nextCell(int bits, int x, int y) {
+        int count = 0;
+        for (int j = y - 1; j <= y + 1; j++) {
+            for (int i = x - 1; i <= x + 1; i++) {
+                if ((i != x || j != y) && ((bits >>> (j * 4 + i)) & 1) != 0) {
+                    count++;
+                }
+            }
+        }
+        boolean alive = ((bits >>> (y * 4 + x)) & 1) != 0;
+        int mask = alive ? mSurviveMask : mBornMask;
+        return ((mask >>> count) & 1) != 0 ? ALIVE : DEAD;
+    }
+
+    /**
+     * The canonical empty node of the given level.
+     */
+    private Node empty(int level) {
+        if (level == 0) {
+            return DEAD;
+        }
+        Node e = mEmpty[level];
+        if (e == null) {
+            Node sub = empty(level - 1);
+            e = node(sub, sub, sub, sub);
+            mEmpty[level] = e;
+        }
+        return e;
+    }
+
+    /**
+     * Return the canonical node with the given children, creating it if
+     * this is the first time it's been asked for.
+     */
+    private Node node(Node nw, Node ne, Node sw, Node se) {
+        int hash = Node.hash(nw, ne, sw, se);
+        int index = hash & (mTable.length - 1);
+        for (Node n = mTable[index]; n != null; n = n.next) {
+            if (n.nw == nw && n.ne == ne && n.sw == sw && n.se == se) {
+                return n;
+            }
+        }
+
+        Node n = new Node(nw, ne, sw, se, hash);
+        n.next = mTable[index];
+        mTable[index] = n;
+        if (++mNodeCount > mTable.length - (mTable.length >>> 2)) {
+            rehash(mTable.length << 1);
+        }
+        return n;
+    }
+
+    private void rehash(int size) {
+        Node[] table = new Node[size];
+        for (Node head : mTable) {
+            Node n = head;
+            while (n != null) {
+                Node next = n.next;
+                int index = n.hash & (size - 1);
+                n.next = table[index];
+                table[index] = n;
+                n = next;
+            }
+        }
+        mTable = table;
+    }
+
+    private void clearResults() {
+        for (Node head : mTable) {
+            for (Node n = head; n != null; n = n.next) {
+                n.result = null;
+            }
+        }
+    }
+
+    /**
+     * Throw away every node that isn't part of the current universe or one
+     * of the empty nodes.  Memoized results survive only if they point at
+     * a node which survives.
+     */
+    private void collectGarbage() {
+        mMark++;
+        mark(mRoot);
+        for (Node e : mEmpty) {
+            if (e != null) {
+                mark(e);
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            Node kept = null;
+            Node n = mTable[i];
+            while (n != null) {
+                Node next = n.next;
+                if (n.mark == mMark) {
+                    if (n.result != null && n.result.level > 0 && n.result.mark != mMark) {
+                        n.result = null;
+                    }
+                    n.next = kept;
+                    kept = n;
+                    count++;
+                }
+                n = next;
+            }
+            mTable[i] = kept;
+        }
+        mNodeCount = count;
+    }
+
+    private void mark(Node n) {
+        if (n.level == 0 || n.mark == mMark) {
+            return;
+        }
+        n.mark = mMark;
+        mark(n.nw);
+        mark(n.ne);
+        mark(n.sw);
+        mark(n.se);
+    }
+
+    /**
+     * A square of <tt>2^level</tt> cells on a side.  Level 0 nodes are
+     * single cells.
+     */
+    private static final class Node {
+        final Node nw, ne, sw, se;
+        final int level;
+        final long population;
+        final boolean alive;
+        final int hash;
+
+        Node next;      // Next node in the same hash bucket
+        Node result;    // Memoized future of the center
+        int mark;
+
+        Node(boolean alive) {
+            this.nw = this.ne = this.sw = this.se = null;
+            this.level = 0;
+            this.alive = alive;
+            this.population = alive ? 1 : 0;
+            this.hash = alive ? 1 : 0;
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se, int hash) {
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            this.level = nw.level + 1;
+            this.alive = false;
+            this.population = nw.population + ne.population
+                    + sw.population + se.population;
+            this.hash = hash;
+        }
+
+        static int hash(Node nw, Node ne, Node sw, Node se) {
+            int h = nw.hash;
+            h = h * 0x9E3779B1 + ne.hash;
+            h = h * 0x9E3779B1 + sw.hash;
+            h = h * 0x9E3779B1 + se.hash;
+            return h ^ (h >>> 15);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A <tt>BitGrid</tt> kept in a memory-mapped file instead of on the heap,
+ * so a field can be as big as the disk and address space allow while the
+ * heap stays small.  The operating system pages the file in and out as
+ * cells are used.
+ *
+ * The file is laid out in tiles one word wide and <tt>TILE_ROWS</tt>
+ * rows high, the same tiles <tt>CellModel</tt> tracks activity by, each
+ * stored as 64 consecutive little-endian words.  A quiet region of the
+ * field therefore occupies pages of its own which needn't be touched at
+ * all, however wide the rows are.
+ */
+public class MappedBitGrid extends BitGrid implements Closeable {
+    /** Height of a tile, in rows. */
+    public static final int TILE_ROWS = CellModel.TILE_ROWS;
+
+    private static final int SEGMENT_SHIFT = 27;    // 2^27 words, 1GB, per mapping
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final Path mFile;
+    private final boolean mDeleteOnClose;
+    private final FileChannel mChannel;
+    private final LongBuffer[] mSegments;
+
+    /**
+     * Map a field <tt>cols</tt> cells wide and <tt>rows</tt> cells high
+     * onto <tt>file</tt>, creating or growing the file as needed.  A file
+     * written by a grid of the same size is picked up where it left off;
+     * a new one starts out empty.
+     *
+     * @param cols The number of cell columns
+     * @param rows The number of cell rows
+     * @param file The file to keep the cells in
+     */
+    public MappedBitGrid(int cols, int rows, Path file) throws IOException {
+        this(cols, rows, file, false);
+    }
+
+    private MappedBitGrid(int cols, int rows, Path file, boolean deleteOnClose) throws IOException {
+        super(cols, rows, false);
+        mFile = file;
+        mDeleteOnClose = deleteOnClose;
+
+        long tileRows = (rows + TILE_ROWS - 1) / TILE_ROWS;
+        long words = tileRows * getWordCount() * TILE_ROWS;
+        mChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int count = (int) ((words + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        mSegments = new LongBuffer[count];
+        for (int k = 0; k < count; k++) {
+            long first = (long) k << SEGMENT_SHIFT;
+            long size = Math.min(SEGMENT_MASK + 1, words - first);
+            mSegments[k] = mChannel.map(FileChannel.MapMode.READ_WRITE, first * 8, size * 8)
+                                   .order(ByteOrder.LITTLE_ENDIAN)
+                                   .asLongBuffer();
+        }
+    }
+
+    /**
+     * Map a new, empty field onto a temporary file in <tt>dir</tt>, which
+     * is deleted again by <tt>close()</tt>.
+     */
+    public static MappedBitGrid createTemp(int cols, int rows, Path dir) throws IOException {
+        Path file = Files.createTempFile(dir, "automata", ".cells");
+        return new MappedBitGrid(cols, rows, file, true);
+    }
+
+    @Override
+    public boolean get(int x, int y) {
+        return (getWord(y, x >>> 6) & (1L << x)) != 0;
+    }
+
+    @Override
+    public void set(int x, int y, boolean b) {
+        long index = index(y, x >>> 6);
+        LongBuffer segment = mSegments[(int) (index >>> SEGMENT_SHIFT)];
+        int offset = (int) (index & SEGMENT_MASK);
+        if (b) {
+            segment.put(offset, segment.get(offset) | (1L << x));
+        } else {
+            segment.put(offset, segment.get(offset) & ~(1L << x));
+        }
+    }
+
+    @Override
+    public long getWord(int y, int i) {
+        long index = index(y, i);
+        return mSegments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    /**
+     * Copy the words <tt>[firstWord, endWord)</tt> of row <tt>y</tt> into
+     * <tt>buffer</tt>, and return it.
+     */
+    @Override
+    public long[] row(int y, long[] buffer, int firstWord, int endWord) {
+        for (int i = firstWord; i < endWord; i++) {
+            buffer[i] = getWord(y, i);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void commitRow(int y, long[] row, int firstWord, int endWord) {
+        for (int i = firstWord; i < endWord; i++) {
+            long index = index(y, i);
+            mSegments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), row[i]);
+        }
+    }
+
+    @Override
+    public long[] newRowBuffer() {
+        return new long[getWordCount()];
+    }
+
+    @Override
+    public void clear() {
+        for (LongBuffer segment : mSegments) {
+            for (int i = 0; i < segment.limit(); i++) {
+                segment.put(i, 0L);
+            }
+        }
+    }
+
+    /**
+     * Close the file.  A temporary file is deleted.  The grid mustn't be
+     * used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+        if (mDeleteOnClose) {
+            Files.deleteIfExists(mFile);
+        }
+    }
+
+    /**
+     * The position of word <tt>i</tt> of row <tt>y</tt> in the file, in
+     * words.
+     */
+    private long index(int y, int i) {
+        long tile = (long) (y / TILE_ROWS) * getWordCount() + i;
+        return tile * TILE_ROWS + (y % TILE_ROWS);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * One process of a <tt>PartitionedRun</tt>, owning a band of whole rows
+ * of the field.  The band is kept with a halo row above and below it,
+ * holding copies of the neighboring bands' edge rows, so each generation
+ * it can be transformed on its own just as it would be as part of the
+ * whole field.  The band spans the full width, so it wraps around left
+ * and right by itself, and only rows need exchanging.
+ *
+ * The worker connects back to the coordinator given on its command line,
+ * and is told its band from there.  It then connects to the worker below
+ * it and takes a connection from the worker above, and from then on the
+ * workers keep in step by waiting for each other's halos.
+ *
+ * <pre>
+ * java -cp automata.jar com.loomcom.automata.PartitionWorker HOST PORT
+ * </pre>
+ */
+public class PartitionWorker {
+    /** Commands sent by the coordinator. */
+    static final int RUN = 1;
+    static final int GATHER = 2;
+    static final int QUIT = 3;
+
+    private final int mFirstRow;    // The band's first row in the whole field
+    private final int mBandRows;    // Height of the band, not counting halos
+    private final RuleSet mRuleSet;
+
+    private BitGrid mCells;         // The band, with halos at 0 and mBandRows + 1
+    private BitGrid mTempCells;     // Temp band used when transforming
+    private long mGeneration;
+
+    private final byte[] mSendUp;   // The band's top row, on its way up
+    private final byte[] mSendDown; // The band's bottom row, on its way down
+    private final byte[] mReceive;
+
+    private DataInputStream mUpIn;
+    private DataOutputStream mUpOut;
+    private DataInputStream mDownIn;
+    private DataOutputStream mDownOut;
+    private final ExecutorService mSender = Executors.newSingleThreadExecutor();
+
+    PartitionWorker(RuleSet rs, int cols, int firstRow, int endRow) {
+        mRuleSet = rs;
+        mFirstRow = firstRow;
+        mBandRows = endRow - firstRow;
+        mCells = new BitGrid(cols, mBandRows + 2);
+        mTempCells = new BitGrid(cols, mBandRows + 2);
+        int bytes = mCells.getWordCount() * 8;
+        mSendUp = new byte[bytes];
+        mSendDown = new byte[bytes];
+        mReceive = new byte[bytes];
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: PartitionWorker HOST PORT");
+            System.exit(2);
+        }
+        try (Socket control = new Socket(args[0], Integer.parseInt(args[1]))) {
+            serve(control);
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Partition worker failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Take a band from the coordinator, link up with the neighbors and
+     * carry out commands until told to quit.
+     */
+    private static void serve(Socket control) throws IOException {
+        control.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(control.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+
+        try (ServerSocket server = new ServerSocket(0, 1, control.getLocalAddress())) {
+            out.writeInt(server.getLocalPort());
+            out.flush();
+
+            int cols = in.readInt();
+            int firstRow = in.readInt();
+            int endRow = in.readInt();
+            RuleSet rs = RuleSet.parse(in.readUTF());
+            double density = in.readDouble();
+            long seed = in.readLong();
+            String downHost = in.readUTF();
+            int downPort = in.readInt();
+
+            PartitionWorker worker = new PartitionWorker(rs, cols, firstRow, endRow);
+            CellModel.fillSoup(worker.mCells, 1, worker.mBandRows + 1, firstRow, density, seed);
+
+            // Connect downwards before accepting from above, so that a ring
+            // of workers, or a single worker linked to itself, can't stall.
+            try (Socket down = new Socket(downHost, downPort);
+                 Socket up = server.accept()) {
+                worker.link(up, down);
+                worker.report(out);
+                worker.commands(in, out);
+            } finally {
+                worker.mSender.shutdownNow();
+            }
+        }
+    }
+
+    private void link(Socket up, Socket down) throws IOException {
+        up.setTcpNoDelay(true);
+        down.setTcpNoDelay(true);
+        mUpIn = new DataInputStream(new BufferedInputStream(up.getInputStream()));
+        mUpOut = new DataOutputStream(new BufferedOutputStream(up.getOutputStream()));
+        mDownIn = new DataInputStream(new BufferedInputStream(down.getInputStream()));
+        mDownOut = new DataOutputStream(new BufferedOutputStream(down.getOutputStream()));
+    }
+
+    private void commands(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            int command = in.readInt();
+            switch (command) {
+                case RUN:
+                    int n = in.readInt();
+                    for (int k = 0; k < n; k++) {
+                        exchangeHalos();
+                        step();
+                    }
+                    report(out);
+                    break;
+                case GATHER:
+                    gather(out);
+                    break;
+                case QUIT:
+                    return;
+                default:
+                    throw new IOException("Unknown command " + command);
+            }
+        }
+    }
+
+    /**
+     * Send the band's edge rows to the neighbors and read theirs into the
+     * halos.  The sending happens on another thread, so that no worker
+     * can block writing a row while its neighbor is blocked writing too.
+     */
+    private void exchangeHalos() throws IOException {
+        int words = mCells.getWordCount();
+        long[] buffer = mCells.newRowBuffer();
+        ByteBuffer.wrap(mSendUp).asLongBuffer().put(mCells.row(1, buffer, 0, words), 0, words);
+        ByteBuffer.wrap(mSendDown).asLongBuffer().put(mCells.row(mBandRows, buffer, 0, words), 0, words);
+
+        Future<?> sent = mSender.submit(() -> {
+            mUpOut.write(mSendUp);
+            mUpOut.flush();
+            mDownOut.write(mSendDown);
+            mDownOut.flush();
+            return null;
+        });
+
+        receiveRow(mUpIn, 0, buffer);
+        receiveRow(mDownIn, mBandRows + 1, buffer);
+
+        try {
+            sent.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted sending halo rows");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed sending halo rows", e.getCause());
+        }
+    }
+
+    private void receiveRow(DataInputStream in, int y, long[] buffer) throws IOException {
+        int words = mCells.getWordCount();
+        in.readFully(mReceive);
+        long[] row = mCells.row(y, buffer, 0, words);
+        ByteBuffer.wrap(mReceive).asLongBuffer().get(row, 0, words);
+        mCells.commitRow(y, row, 0, words);
+    }
+
+    /**
+     * Compute the band's next generation from the band and its halos.
+     */
+    private void step() {
+        int words = mCells.getWordCount();
+        long[][] buffers = RuleSet.newRowBuffers(mCells, mTempCells);
+        for (int y = 1; y <= mBandRows; y++) {
+            mRuleSet.transformRow(mCells, mTempCells, y, 0, words,
+                                  mGeneration + 1, buffers, mFirstRow + y - 1);
+        }
+
+        BitGrid b = mCells;
+        mCells = mTempCells;
+        mTempCells = b;
+        mGeneration++;
+    }
+
+    /**
+     * Send the coordinator the band's population and its share of the
+     * field's hash, taken by the rows' places in the whole field, so that
+     * the shares XOR together into <tt>CellModel.getStateHash()</tt>.
+     */
+    private void report(DataOutputStream out) throws IOException {
+        int words = mCells.getWordCount();
+        long[] buffer = mCells.newRowBuffer();
+        long population = 0;
+        long hash = 0;
+        for (int y = 1; y <= mBandRows; y++) {
+            long[] row = mCells.row(y, buffer, 0, words);
+            int base = (mFirstRow + y - 1) * words;
+            for (int i = 0; i < words; i++) {
+                population += Long.bitCount(row[i]);
+                hash ^= BitGrid.wordHash(base + i, row[i]);
+            }
+        }
+        out.writeLong(population);
+        out.writeLong(hash);
+        out.flush();
+    }
+
+    /**
+     * Send the coordinator every word of the band, row by row.
+     */
+    private void gather(DataOutputStream out) throws IOException {
+        int words = mCells.getWordCount();
+        long[] buffer = mCells.newRowBuffer();
+        for (int y = 1; y <= mBandRows; y++) {
+            long[] row = mCells.row(y, buffer, 0, words);
+            for (int i = 0; i < words; i++) {
+                out.writeLong(row[i]);
+            }
+        }
+        out.flush();
+    }
+}
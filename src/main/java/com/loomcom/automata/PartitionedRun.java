@@ -0,0 +1,284 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A field split across several worker processes, for fields too big for
+ * one JVM's heap or cores.  The torus is cut into bands of whole rows,
+ * one per <tt>PartitionWorker</tt>, and each generation every worker
+ * swaps its edge rows with the workers above and below over a local
+ * socket before computing its band.  The result is exactly what a
+ * <tt>CellModel</tt> of the same size would compute from the same soup:
+ * the soup is the one <tt>CellModel.randomize()</tt> makes, and
+ * <tt>getStateHash()</tt> matches <tt>CellModel.getStateHash()</tt>.
+ *
+ * The workers are started as child JVMs on the same class path, and
+ * stopped by <tt>close()</tt>.  Only the population and hash come back
+ * each run; the cells themselves only cross over on <tt>gather()</tt>.
+ * Only deterministic rules can be run this way.
+ */
+public class PartitionedRun implements Closeable {
+    /** How long to wait for the workers to start and connect. */
+    private static final int CONNECT_TIMEOUT_MS = 60000;
+
+    private final RuleSet mRuleSet;
+    private final int mCols;
+    private final int mRows;
+    private final int mWorkers;
+    private double mDensity = 0.5;
+    private long mSeed;
+    private List<String> mJvmOptions = new ArrayList<>();
+
+    private final List<Process> mProcesses = new ArrayList<>();
+    private final List<Socket> mSockets = new ArrayList<>();
+    private DataInputStream[] mIn;
+    private DataOutputStream[] mOut;
+
+    private int mGeneration;
+    private long mPopulation;
+    private long mHash;
+
+    /**
+     * Create a run of a field <tt>cols</tt> by <tt>rows</tt> cells under
+     * rule <tt>rs</tt>, split across <tt>workers</tt> processes.  Nothing
+     * starts until <tt>start()</tt>.
+     */
+    public PartitionedRun(RuleSet rs, int cols, int rows, int workers) {
+        if (workers < 1 || workers > rows) {
+            throw new IllegalArgumentException("Need between 1 and " + rows + " workers");
+        }
+        if (!rs.isDeterministic()) {
+            // Workers are only sent the rule string, not any odds or seed.
+            throw new IllegalArgumentException("Only deterministic rules can be partitioned");
+        }
+        mRuleSet = rs;
+        mCols = cols;
+        mRows = rows;
+        mWorkers = workers;
+    }
+
+    /**
+     * Set the chance, between 0.0 and 1.0, that a soup cell starts alive.
+     */
+    public void setDensity(double density) {
+        mDensity = density;
+    }
+
+    /**
+     * Set the seed of the starting soup, as for
+     * <tt>CellModel.randomize()</tt>.
+     */
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Set options passed to each worker JVM, such as its heap size.
+     */
+    public void setJvmOptions(String... options) {
+        mJvmOptions = new ArrayList<>(Arrays.asList(options));
+    }
+
+    /**
+     * Start the workers, hand each its band and wait for them to fill it
+     * with the soup.
+     */
+    public void start() throws IOException {
+        mIn = new DataInputStream[mWorkers];
+        mOut = new DataOutputStream[mWorkers];
+        int[] ports = new int[mWorkers];
+
+        try (ServerSocket server = new ServerSocket(0, mWorkers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MS);
+            for (int i = 0; i < mWorkers; i++) {
+                mProcesses.add(launch(server.getLocalPort()));
+            }
+            for (int i = 0; i < mWorkers; i++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                mSockets.add(socket);
+                mIn[i] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                mOut[i] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                ports[i] = mIn[i].readInt();
+            }
+        }
+
+        // Worker i owns rows [i * rows / workers, (i + 1) * rows / workers)
+        // and links down to worker i + 1, wrapping around at the bottom.
+        for (int i = 0; i < mWorkers; i++) {
+            int down = (i + 1) % mWorkers;
+            DataOutputStream out = mOut[i];
+            out.writeInt(mCols);
+            out.writeInt(bandStart(i));
+            out.writeInt(bandStart(i + 1));
+            out.writeUTF(mRuleSet.getRuleString());
+            out.writeDouble(mDensity);
+            out.writeLong(mSeed);
+            out.writeUTF(mSockets.get(down).getInetAddress().getHostAddress());
+            out.writeInt(ports[down]);
+            out.flush();
+        }
+        readReports();
+    }
+
+    /**
+     * Start one worker JVM, pointed back at the coordinator's port.
+     */
+    private Process launch(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(mJvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(PartitionWorker.class.getName());
+        command.add(InetAddress.getLoopbackAddress().getHostAddress());
+        command.add(Integer.toString(port));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private int bandStart(int i) {
+        return (int) ((long) i * mRows / mWorkers);
+    }
+
+    /**
+     * Transform <tt>n</tt> generations ahead.  The workers run them all
+     * without hearing from the coordinator in between.
+     */
+    public void transform(int n) throws IOException {
+        for (DataOutputStream out : mOut) {
+            out.writeInt(PartitionWorker.RUN);
+            out.writeInt(n);
+            out.flush();
+        }
+        readReports();
+        mGeneration += n;
+    }
+
+    /**
+     * Add up the workers' populations and hashes.
+     */
+    private void readReports() throws IOException {
+        long population = 0;
+        long hash = 0;
+        for (DataInputStream in : mIn) {
+            population += in.readLong();
+            hash ^= in.readLong();
+        }
+        mPopulation = population;
+        mHash = hash;
+    }
+
+    /**
+     * Collect the whole field into a <tt>CellModel</tt>, for saving or
+     * looking at.  The field has to fit in this JVM's heap for that.
+     */
+    public CellModel gather() throws IOException {
+        CellModel model = new CellModel(mCols, mRows, mRuleSet);
+        int words = (mCols + 63) >>> 6;
+        for (int i = 0; i < mWorkers; i++) {
+            mOut[i].writeInt(PartitionWorker.GATHER);
+            mOut[i].flush();
+            for (int y = bandStart(i); y < bandStart(i + 1); y++) {
+                for (int w = 0; w < words; w++) {
+                    long word = mIn[i].readLong();
+                    while (word != 0) {
+                        int x = (w << 6) + Long.numberOfTrailingZeros(word);
+                        model.putCell(x, y, true);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        model.cellsChanged();
+        return model;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Return the population of the whole field.
+     */
+    public long getPopulation() {
+        return mPopulation;
+    }
+
+    /**
+     * Return the hash of the whole field, the same as a
+     * <tt>CellModel</tt> holding the same cells would give.
+     */
+    public long getStateHash() {
+        return mHash;
+    }
+
+    public int getWorkers() {
+        return mWorkers;
+    }
+
+    /**
+     * Tell the workers to quit, and make sure they have.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mOut != null) {
+            for (DataOutputStream out : mOut) {
+                if (out == null) {
+                    continue;
+                }
+                try {
+                    out.writeInt(PartitionWorker.QUIT);
+                    out.flush();
+                } catch (IOException e) {
+                    // The worker's gone already.
+                }
+            }
+        }
+        for (Socket socket : mSockets) {
+            socket.close();
+        }
+        for (Process process : mProcesses) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading and writing patterns in the common file formats: RLE, Life
+ * 1.06 and plaintext.
+ *
+ * RLE and Life 1.06 are read straight into a <tt>CellModel</tt> as the
+ * text goes by and written out a row at a time, so files of hundreds of
+ * megabytes never have to fit in memory as a whole.  The observers hear
+ * about a load once, at the end.  Cells falling outside the field are
+ * dropped.
+ */
+public class PatternIO {
+    /** RLE lines are kept shorter than this. */
+    private static final int RLE_LINE_LENGTH = 70;
+
+    /**
+     * Read a pattern file into the model, centered on <tt>(x,y)</tt>.
+     * The format comes from the file name: <tt>.lif</tt> or <tt>.life</tt>
+     * for Life 1.06, <tt>.cells</tt> or <tt>.txt</tt> for plaintext, and
+     * RLE for anything else.
+     *
+     * @return  The rule named in the file, or null if it doesn't name one.
+     */
+    public static String read(Path file, CellModel model, int x, int y) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (name.endsWith(".lif") || name.endsWith(".life")) {
+                readLife106(in, model, x, y);
+                return null;
+            } else if (name.endsWith(".cells") || name.endsWith(".txt")) {
+                readPlaintext(in, model, x, y);
+                return null;
+            } else {
+                return readRle(in, model, x, y);
+            }
+        }
+    }
+
+    /**
+     * Write the model's living cells to a file, in RLE unless the name
+     * ends in <tt>.lif</tt> or <tt>.life</tt>.
+     */
+    public static void write(CellModel model, Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (name.endsWith(".lif") || name.endsWith(".life")) {
+                writeLife106(model, out);
+            } else {
+                writeRle(model, out);
+            }
+        }
+    }
+
+    /**
+     * Read an RLE pattern into the model, centered on <tt>(x,y)</tt> if the
+     * header gives the pattern's size, or with its top left corner there
+     * if not.
+     *
+     * @return  The rule named in the header, or null.
+     */
+    public static String readRle(Reader reader, CellModel model, int x, int y) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        String rule = null;
+        int originX = x;
+        int originY = y;
+        int line = 1;
+
+        // Comments and the header come first, a line apiece, perhaps
+        // indented.  Leading blanks would be skipped among the runs too,
+        // so they can go without looking any further.
+        while (true) {
+            in.mark(1);
+            int c = in.read();
+            if (c == -1) {
+                break;
+            }
+            if (c == ' ' || c == '\t') {
+                continue;
+            }
+            in.reset();
+            if (c == '#' || c == '\n' || c == '\r') {
+                in.readLine();
+                line++;
+            } else if (c == 'x' || c == 'X') {
+                String header = in.readLine();
+                line++;
+                int width = 0;
+                int height = 0;
+                for (String field : header.split(",")) {
+                    int eq = field.indexOf('=');
+                    if (eq < 0) {
+                        continue;   // e.g. the second half of a ":T10,10" bounded grid
+                    }
+                    String key = field.substring(0, eq).trim().toLowerCase();
+                    String value = field.substring(eq + 1).trim();
+                    try {
+                        if (key.equals("x")) {
+                            width = Integer.parseInt(value);
+                        } else if (key.equals("y")) {
+                            height = Integer.parseInt(value);
+                        } else if (key.equals("rule")) {
+                            rule = value;
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Bad RLE header: " + header);
+                    }
+                }
+                originX = x - width / 2;
+                originY = y - height / 2;
+                break;
+            } else {
+                break;
+            }
+        }
+
+        // Then the runs: an optional count followed by b (dead), o (alive)
+        // or $ (end of row), until a !.
+        int cx = originX;
+        int cy = originY;
+        int count = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c >= '0' && c <= '9') {
+                count = count * 10 + (c - '0');
+                continue;
+            }
+            int n = Math.max(count, 1);
+            count = 0;
+            if (c == 'b' || c == '.') {
+                cx += n;
+            } else if (c == '$') {
+                cx = originX;
+                cy += n;
+            } else if (c == '!') {
+                break;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                // Any other state counts as alive.
+                for (int i = 0; i < n; i++) {
+                    model.putCell(cx + i, cy, true);
+                }
+                cx += n;
+            } else if (c == '\n') {
+                line++;
+            } else if (!Character.isWhitespace(c)) {
+                throw new IOException("Unexpected '" + (char) c + "' in RLE at line " + line);
+            }
+        }
+        model.cellsChanged();
+        return rule;
+    }
+
+    /**
+     * Read a Life 1.06 pattern, one <tt>x y</tt> pair per line, with
+     * <tt>(0,0)</tt> placed at <tt>(x,y)</tt>.
+     */
+    public static void readLife106(Reader reader, CellModel model, int x, int y) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        String text;
+        int line = 0;
+        while ((text = in.readLine()) != null) {
+            line++;
+            text = text.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            int space = text.indexOf(' ');
+            try {
+                if (space < 0) {
+                    throw new NumberFormatException();
+                }
+                int px = Integer.parseInt(text.substring(0, space));
+                int py = Integer.parseInt(text.substring(space + 1).trim());
+                model.putCell(x + px, y + py, true);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad Life 1.06 cell at line " + line + ": " + text);
+            }
+        }
+        model.cellsChanged();
+    }
+
+    /**
+     * Read a plaintext pattern, centered on <tt>(x,y)</tt>: lines starting
+     * with '!' are comments, 'O' or '*' is a living cell and anything else
+     * is empty.  The format has no header to give the size, so the lines
+     * are held until the end; it's only used for small patterns.
+     */
+    public static void readPlaintext(Reader reader, CellModel model, int x, int y) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        List<String> lines = new ArrayList<>();
+        int width = 0;
+        String text;
+        while ((text = in.readLine()) != null) {
+            if (text.startsWith("!")) {
+                continue;
+            }
+            lines.add(text);
+            width = Math.max(width, text.length());
+        }
+
+        int originX = x - width / 2;
+        int originY = y - lines.size() / 2;
+        for (int j = 0; j < lines.size(); j++) {
+            String row = lines.get(j);
+            for (int i = 0; i < row.length(); i++) {
+                char c = row.charAt(i);
+                if (c == 'O' || c == '*') {
+                    model.putCell(originX + i, originY + j, true);
+                }
+            }
+        }
+        model.cellsChanged();
+    }
+
+    /**
+     * Write the living cells of the model as RLE, trimmed to the smallest
+     * rectangle holding them all.
+     */
+    public static void writeRle(CellModel model, Writer writer) throws IOException {
+        BufferedWriter out = writer instanceof BufferedWriter
+                ? (BufferedWriter) writer : new BufferedWriter(writer);
+        int[] box = boundingBox(model);
+        int width = box == null ? 0 : box[2] - box[0];
+        int height = box == null ? 0 : box[3] - box[1];
+
+        out.write("x = " + width + ", y = " + height);
+        if (model.getRuleSet() != null) {
+            out.write(", rule = " + model.getRuleSet().getRuleString());
+        }
+        out.newLine();
+
+        RleLine rle = new RleLine(out);
+        if (box != null) {
+            int blankRows = 0;
+            for (int j = box[1]; j < box[3]; j++) {
+                int x = box[0];
+                int start = nextCell(model, j, x, box[2], true);
+                if (start >= box[2]) {
+                    blankRows++;
+                    continue;
+                }
+                if (j > box[1]) {
+                    rle.run(blankRows + 1, '$');
+                }
+                blankRows = 0;
+                while (start < box[2]) {
+                    int end = nextCell(model, j, start, box[2], false);
+                    rle.run(start - x, 'b');
+                    rle.run(end - start, 'o');
+                    x = end;
+                    start = nextCell(model, j, end, box[2], true);
+                }
+            }
+        }
+        rle.run(1, '!');
+        rle.finish();
+        out.flush();
+    }
+
+    /**
+     * Write the living cells of the model in Life 1.06, relative to the
+     * middle of the field, so that reading them back in centered there
+     * puts them where they were.
+     */
+    public static void writeLife106(CellModel model, Writer writer) throws IOException {
+        BufferedWriter out = writer instanceof BufferedWriter
+                ? (BufferedWriter) writer : new BufferedWriter(writer);
+        int cols = model.getCols();
+        int midX = cols / 2;
+        int midY = model.getRows() / 2;
+
+        out.write("#Life 1.06");
+        out.newLine();
+        for (int j = 0; j < model.getRows(); j++) {
+            int i = nextCell(model, j, 0, cols, true);
+            while (i < cols) {
+                out.write(Integer.toString(i - midX));
+                out.write(' ');
+                out.write(Integer.toString(j - midY));
+                out.newLine();
+                i = nextCell(model, j, i + 1, cols, true);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Find the first cell in <tt>[from, limit)</tt> of row <tt>y</tt>
+     * which is alive, or dead if <tt>alive</tt> is false, a word at a
+     * time.
+     *
+     * @return  The cell's column, or <tt>limit</tt> if there isn't one.
+     */
+    private static int nextCell(CellModel model, int y, int from, int limit, boolean alive) {
+        int x = from;
+        while (x < limit) {
+            long word = model.getWord(y, x >>> 6);
+            if (!alive) {
+                word = ~word;
+            }
+            word &= -1L << x;   // Only bits from x on
+            if (word != 0) {
+                return Math.min(limit, ((x >>> 6) << 6) + Long.numberOfTrailingZeros(word));
+            }
+            x = ((x >>> 6) + 1) << 6;
+        }
+        return limit;
+    }
+
+    /**
+     * The smallest rectangle holding all the living cells, as
+     * <tt>{minX, minY, endX, endY}</tt>, or null if there are none.
+     */
+    private static int[] boundingBox(CellModel model) {
+        int cols = model.getCols();
+        int words = (cols + 63) >>> 6;
+        int minX = cols;
+        int endX = 0;
+        int minY = -1;
+        int endY = 0;
+        for (int j = 0; j < model.getRows(); j++) {
+            for (int i = 0; i < words; i++) {
+                long word = model.getWord(j, i);
+                if (word == 0) {
+                    continue;
+                }
+                if (minY < 0) {
+                    minY = j;
+                }
+                endY = j + 1;
+                minX = Math.min(minX, (i << 6) + Long.numberOfTrailingZeros(word));
+                endX = Math.max(endX, (i << 6) + 64 - Long.numberOfLeadingZeros(word));
+            }
+        }
+        return minY < 0 ? null : new int[] { minX, minY, endX, endY };
+    }
+
+    /**
+     * Writes RLE runs, wrapping the lines before they get too long.
+     */
+    private static class RleLine {
+        private final BufferedWriter mOut;
+        private int mLength;
+
+        RleLine(BufferedWriter out) {
+            mOut = out;
+        }
+
+        void run(int count, char c) throws IOException {
+            if (count <= 0) {
+                return;
+            }
+            String token = count == 1 ? String.valueOf(c) : count + String.valueOf(c);
+            if (mLength + token.length() > RLE_LINE_LENGTH) {
+                mOut.newLine();
+                mLength = 0;
+            }
+            mOut.write(token);
+            mLength += token.length();
+        }
+
+        void finish() throws IOException {
+            mOut.newLine();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Paints at most once per pulse of the FX thread, however often it's
+ * asked to.  Any thread may ask for a frame with <tt>requestFrame()</tt>,
+ * which only bumps a counter, so a simulation running thousands of
+ * generations a second doesn't flood the FX event queue with repaints.
+ * On each pulse, if anything was asked for since the last frame, the
+ * painters are run once, showing the latest state; the frames asked for
+ * in between are counted as skipped.
+ */
+class RenderScheduler extends AnimationTimer {
+    private final AtomicLong mRequested = new AtomicLong();
+    private final List<Runnable> mPainters = new CopyOnWriteArrayList<>();
+    private long mHandled;              // Requests covered by the frames so far
+    private volatile long mRendered;    // Written only on the FX thread
+    private volatile long mSkipped;
+
+    /**
+     * Add something to run, on the FX thread, each time a frame is drawn.
+     * Painters run in the order they were added.
+     */
+    void addPainter(Runnable painter) {
+        mPainters.add(painter);
+    }
+
+    /**
+     * Ask for a frame at the next pulse.  Safe to call from any thread.
+     */
+    void requestFrame() {
+        mRequested.incrementAndGet();
+    }
+
+    @Override
+    public void handle(long now) {
+        long requested = mRequested.get();
+        if (requested == mHandled) {
+            return;
+        }
+        mSkipped += requested - mHandled - 1;
+        mHandled = requested;
+        for (Runnable painter : mPainters) {
+            painter.run();
+        }
+        mRendered++;
+    }
+
+    /**
+     * Return the number of frames drawn.
+     */
+    long getRenderedFrames() {
+        return mRendered;
+    }
+
+    /**
+     * Return the number of frames asked for but never drawn, because a
+     * newer one came along before the next pulse.
+     */
+    long getSkippedFrames() {
+        return mSkipped;
+    }
+}
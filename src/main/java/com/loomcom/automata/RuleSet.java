@@ -31,6 +31,11 @@ package com.loomcom.automata;
 public class RuleSet {
     final int[] mBornOn;
     final int[] mSurviveOn;
+    final int mBornMask;        // Bit n is set if n neighbors cause a birth
+    final int mSurviveMask;     // Bit n is set if n neighbors allow survival
+    private final long[] mBornWords;    // Per neighbor count, all ones or zero
+    private final long[] mSurviveWords;
+    private final boolean[] mLookup;    // Next state of each 3x3 neighborhood
     String mName;
     String mShortName;
 
@@ -48,6 +53,12 @@ public class RuleSet {
         mSurviveOn = survive;
         mShortName = name;
 
+        mBornMask = compileMask(born);
+        mSurviveMask = compileMask(survive);
+        mBornWords = compileWords(mBornMask);
+        mSurviveWords = compileWords(mSurviveMask);
+        mLookup = compileLookup(mBornMask, mSurviveMask);
+
         makeDisplayableName(name);
     }
 
@@ -63,6 +74,93 @@ public class RuleSet {
         this(null, born, survive);
     }
 
+    /**
+     * Parse a rule in the usual <tt>B3/S23</tt> notation.  Case doesn't
+     * matter, the slash is optional and either half may come first.  The
+     * older <tt>23/3</tt> notation, survival first, is accepted too.
+     *
+     * @param rule      The rule string, i.e. "B36/S23"
+     * @return  An un-named RuleSet for the rule.
+     * @throws IllegalArgumentException if the string isn't a B/S rule.
+     */
+    public static RuleSet parse(String rule) {
+        String s = rule.trim().toUpperCase();
+        int slash = s.indexOf('/');
+        if (slash >= 0 && s.indexOf('B') < 0 && s.indexOf('S') < 0) {
+            s = "S" + s.substring(0, slash) + "/B" + s.substring(slash + 1);
+        }
+        int b = s.indexOf('B');
+        int sIndex = s.indexOf('S');
+        if (b < 0 || sIndex < 0) {
+            throw new IllegalArgumentException("Not a B/S rule: " + rule);
+        }
+        return new RuleSet(parseCounts(s, b + 1, rule), parseCounts(s, sIndex + 1, rule));
+    }
+
+    /**
+     * Read the neighbor counts following position <tt>start</tt>, up to
+     * the next letter or slash.
+     */
+    private static int[] parseCounts(String s, int start, String rule) {
+        int end = start;
+        while (end < s.length() && Character.isDigit(s.charAt(end))) {
+            end++;
+        }
+        if (end < s.length() && "BS/".indexOf(s.charAt(end)) < 0) {
+            throw new IllegalArgumentException("Not a B/S rule: " + rule);
+        }
+        int[] counts = new int[end - start];
+        for (int i = start; i < end; i++) {
+            counts[i - start] = s.charAt(i) - '0';
+            if (counts[i - start] > 8) {
+                throw new IllegalArgumentException("Neighbor counts go from 0 to 8: " + rule);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Fold a list of neighbor counts into a bitmask with bit <tt>n</tt>
+     * set for each count <tt>n</tt> in the list.
+     */
+    private static int compileMask(int[] counts) {
+        int mask = 0;
+        for (int k = 0; k < counts.length; k++) {
+            if (counts[k] >= 0 && counts[k] <= 8) {
+                mask |= 1 << counts[k];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Expand a count mask into one word per count, all ones if the count
+     * is in the mask and all zeros if it isn't, for the word kernel.
+     */
+    private static long[] compileWords(int mask) {
+        long[] words = new long[9];
+        for (int n = 0; n < 9; n++) {
+            words[n] = ((mask >>> n) & 1) != 0 ? -1L : 0L;
+        }
+        return words;
+    }
+
+    /**
+     * Build the 3x3-to-1 lookup table.  The table is indexed by the nine
+     * cells of a neighborhood, three bits per row with the top row in the
+     * high bits, so the cell itself is bit 4.
+     */
+    private static boolean[] compileLookup(int bornMask, int surviveMask) {
+        boolean[] table = new boolean[512];
+        for (int index = 0; index < 512; index++) {
+            boolean alive = (index & 0x10) != 0;
+            int count = Integer.bitCount(index & ~0x10);
+            int mask = alive ? surviveMask : bornMask;
+            table[index] = ((mask >>> count) & 1) != 0;
+        }
+        return table;
+    }
+
     /**
      * Transform from one generation of cells to the next.
      */
@@ -73,26 +171,289 @@ public class RuleSet {
         int rows = Utilities.getHeight(to);
 
         for (int i = 0; i < cols; i++) {
+            boolean[] left = from[i > 0 ? i - 1 : cols - 1];
+            boolean[] center = from[i];
+            boolean[] right = from[i < cols - 1 ? i + 1 : 0];
+
+            // Slide a 3x3 window down the column, shifting in one row of
+            // three cells at a time.
+            int index = (neighborhoodRow(left, center, right, rows - 1) << 3)
+                    | neighborhoodRow(left, center, right, 0);
             for (int j = 0; j < rows; j++) {
+                int next = j < rows - 1 ? j + 1 : 0;
+                index = ((index << 3) & 0x1ff)
+                        | neighborhoodRow(left, center, right, next);
+                to[i][j] = mLookup[index];
+            }
+        }
+    }
+
+    /**
+     * Pack one row of a 3x3 neighborhood into three bits, left cell high.
+     */
+    private static int neighborhoodRow(boolean[] left, boolean[] center,
+                                       boolean[] right, int j) {
+        return (left[j] ? 4 : 0) | (center[j] ? 2 : 0) | (right[j] ? 1 : 0);
+    }
+
+    /**
+     * Transform from one generation of bit-packed cells to the next.
+     * Both fields must have the same dimensions.
+     *
+     * @param generation    The generation being computed, which
+     *                      probabilistic rules use to pick their random
+     *                      numbers.
+     */
+    public void transform(BitGrid from, BitGrid to, long generation) {
+        if (from == null || to == null) { return; }
+
+        int words = from.getWordCount();
+        long[][] buffers = newRowBuffers(from, to);
+        for (int j = 0; j < from.getRows(); j++) {
+            transformRow(from, to, j, 0, words, generation, buffers);
+        }
+    }
 
-                int count = Utilities.getNeighborCount(from, i, j);
-                boolean val = false;
-
-                if (!from[i][j]) {
-                    // "Born" rules
-                    for (int k = 0; k < mBornOn.length; k++) {
-                        val |= (count == mBornOn[k]);
-                    }
-                } else {
-                    // "Survive" rules
-                    for (int k = 0; k < mSurviveOn.length; k++) {
-                        val |= (count == mSurviveOn[k]);
-                    }
-                }
-
-                to[i][j] = val;
+    /**
+     * Transform the words <tt>[firstWord, endWord)</tt> of row <tt>y</tt>
+     * into the next generation.  Each word of 64 cells is evaluated at
+     * once: the eight neighbor words are summed with a bit-sliced adder,
+     * leaving the neighbor count of every cell spread across four words,
+     * one per bit of the count.  Rows and columns wrap around, just as
+     * they do in <tt>Utilities.getNeighborCount</tt>.
+     *
+     * @param generation    The generation being computed.
+     * @return  The bits which differ between the old and new words, OR-ed
+     *          together, so zero means nothing in the span changed.
+     */
+    public long transformRow(BitGrid from, BitGrid to, int y,
+                             int firstWord, int endWord, long generation) {
+        return transformRow(from, to, y, firstWord, endWord, generation,
+                            newRowBuffers(from, to));
+    }
+
+    /**
+     * Transform part of a row, as above, reading and writing the rows
+     * through <tt>buffers</tt>, which come from <tt>newRowBuffers()</tt>
+     * and can be reused from one call to the next on the same thread.
+     */
+    long transformRow(BitGrid from, BitGrid to, int y,
+                      int firstWord, int endWord, long generation,
+                      long[][] buffers) {
+        return transformRow(from, to, y, firstWord, endWord, generation,
+                            buffers, y);
+    }
+
+    /**
+     * Transform part of a row, as above, where the grids hold only a band
+     * of a larger field and row <tt>y</tt> is row <tt>fieldY</tt> of the
+     * whole.  Probabilistic rules pick their random numbers by the row of
+     * the field, so a band comes out just as it would as part of the
+     * whole field.
+     */
+    long transformRow(BitGrid from, BitGrid to, int y,
+                      int firstWord, int endWord, long generation,
+                      long[][] buffers, int fieldY) {
+        int rows = from.getRows();
+        int cols = from.getCols();
+        int last = from.getWordCount() - 1;
+        long lastMask = from.getLastWordMask();
+
+        long[] above = fetchRow(from, y > 0 ? y - 1 : rows - 1, buffers[0], firstWord, endWord);
+        long[] row = fetchRow(from, y, buffers[1], firstWord, endWord);
+        long[] below = fetchRow(from, y < rows - 1 ? y + 1 : 0, buffers[2], firstWord, endWord);
+        long[] out = to.row(y, buffers[3], firstWord, endWord);
+
+        long changed = 0;
+        for (int i = firstWord; i < endWord; i++) {
+            long next = nextWord(westOf(above, i, last, cols),
+                                 centerOf(above, i, last, cols),
+                                 eastOf(above, i, last, cols),
+                                 westOf(row, i, last, cols),
+                                 centerOf(row, i, last, cols),
+                                 eastOf(row, i, last, cols),
+                                 westOf(below, i, last, cols),
+                                 centerOf(below, i, last, cols),
+                                 eastOf(below, i, last, cols),
+                                 generation, i, fieldY);
+            if (i == last) {
+                next &= lastMask;
             }
+            changed |= next ^ row[i];
+            out[i] = next;
         }
+        to.commitRow(y, out, firstWord, endWord);
+        return changed;
+    }
+
+    /**
+     * Make the row buffers <tt>transformRow()</tt> needs: three rows of
+     * <tt>from</tt> and one of <tt>to</tt>.
+     */
+    static long[][] newRowBuffers(BitGrid from, BitGrid to) {
+        return new long[][] { from.newRowBuffer(), from.newRowBuffer(),
+                              from.newRowBuffer(), to.newRowBuffer() };
+    }
+
+    /**
+     * Get the words of a row which the span <tt>[firstWord, endWord)</tt>
+     * looks at: the span, a word either side of it, and the words at the
+     * far end of the row when the span reaches an edge and wraps.
+     */
+    private static long[] fetchRow(BitGrid grid, int y, long[] buffer,
+                                   int firstWord, int endWord) {
+        int words = grid.getWordCount();
+        long[] row = grid.row(y, buffer, Math.max(0, firstWord - 1),
+                              Math.min(words, endWord + 1));
+        if (firstWord == 0) {
+            grid.row(y, buffer, words - 1, words);
+        }
+        if (endWord == words) {
+            grid.row(y, buffer, 0, 1);
+        }
+        return row;
+    }
+
+    /**
+     * Compute the next state of the 64 cells in word <tt>c</tt>.  The
+     * words <tt>n</tt> and <tt>s</tt> are the rows above and below it;
+     * only the top bit of the west words and the bottom bit of the east
+     * words are used, to supply the neighbors of the edge cells.  Word
+     * <tt>c</tt> is word <tt>wordX</tt> of row <tt>y</tt>, which together
+     * with the generation gives every word a stream of random numbers of
+     * its own, should the rule need them.
+     */
+    long nextWord(long nw, long n, long ne,
+                  long w, long c, long e,
+                  long sw, long s, long se,
+                  long generation, int wordX, int y) {
+        // Line up each of the eight neighbors with the cell it borders.
+        long n0 = (n << 1) | (nw >>> 63);
+        long n1 = n;
+        long n2 = (n >>> 1) | (ne << 63);
+        long n3 = (c << 1) | (w >>> 63);
+        long n4 = (c >>> 1) | (e << 63);
+        long n5 = (s << 1) | (sw >>> 63);
+        long n6 = s;
+        long n7 = (s >>> 1) | (se << 63);
+
+        // Three rows of adders boil eight one-bit inputs down to a
+        // four-bit count.
+        long x0 = n0 ^ n1;
+        long sumA = x0 ^ n2;
+        long carryA = (n0 & n1) | (x0 & n2);
+        long x1 = n3 ^ n4;
+        long sumB = x1 ^ n5;
+        long carryB = (n3 & n4) | (x1 & n5);
+        long sumC = n6 ^ n7;
+        long carryC = n6 & n7;
+
+        long x2 = sumA ^ sumB;
+        long bit0 = x2 ^ sumC;
+        long carryD = (sumA & sumB) | (x2 & sumC);
+
+        long x3 = carryA ^ carryB;
+        long twos = x3 ^ carryC;
+        long foursA = (carryA & carryB) | (x3 & carryC);
+        long bit1 = twos ^ carryD;
+        long foursB = twos & carryD;
+
+        long bit2 = foursA ^ foursB;
+        long bit3 = foursA & foursB;
+
+        return evolve(c, bit0, bit1, bit2, bit3, generation, wordX, y);
+    }
+
+    /**
+     * Apply the rule to 64 cells at once.  The neighbor count of each
+     * cell is given bit-sliced, in <tt>s0</tt> (ones) through
+     * <tt>s3</tt> (eights).
+     *
+     * @param alive     The cells which are currently alive.
+     * @param generation    The generation being computed.
+     * @param wordX     The word's position in its row.
+     * @param y         The row.
+     * @return  The cells which are alive in the next generation.
+     */
+    protected long evolve(long alive, long s0, long s1, long s2, long s3,
+                          long generation, int wordX, int y) {
+        long born = select(mBornWords, s0, s1, s2, s3);
+        long survive = select(mSurviveWords, s0, s1, s2, s3);
+        return (~alive & born) | (alive & survive);
+    }
+
+    /**
+     * Return the cells whose neighbor count would cause a birth.
+     */
+    protected final long bornOn(long s0, long s1, long s2, long s3) {
+        return select(mBornWords, s0, s1, s2, s3);
+    }
+
+    /**
+     * Return the cells whose neighbor count would allow survival.
+     */
+    protected final long surviveOn(long s0, long s1, long s2, long s3) {
+        return select(mSurviveWords, s0, s1, s2, s3);
+    }
+
+    /**
+     * Look up each cell's bit-sliced neighbor count in a compiled table
+     * of nine words.  This is a multiplexer tree, one level per count
+     * bit, so it costs the same no matter how many counts the rule has.
+     * A count of eight is the only one with <tt>s3</tt> set.
+     */
+    private static long select(long[] t, long s0, long s1, long s2, long s3) {
+        long m01 = (t[0] & ~s0) | (t[1] & s0);
+        long m23 = (t[2] & ~s0) | (t[3] & s0);
+        long m45 = (t[4] & ~s0) | (t[5] & s0);
+        long m67 = (t[6] & ~s0) | (t[7] & s0);
+        long m03 = (m01 & ~s1) | (m23 & s1);
+        long m47 = (m45 & ~s1) | (m67 & s1);
+        long m07 = (m03 & ~s2) | (m47 & s2);
+        return (m07 & ~s3) | (t[8] & s3);
+    }
+
+    /**
+     * The word west of word <tt>i</tt>, with the wrapped-around last cell
+     * of the row standing in at bit 63 for the first word.
+     */
+    private static long westOf(long[] row, int i, int last, int cols) {
+        if (i > 0) {
+            return row[i - 1];
+        }
+        return row[last] << (63 - ((cols - 1) & 63));
+    }
+
+    /**
+     * Word <tt>i</tt> itself.  When the row doesn't fill its last word,
+     * the wrapped-around first cell of the row is parked in the unused bit
+     * just past the last cell, so that it shifts into place as the east
+     * neighbor.
+     */
+    private static long centerOf(long[] row, int i, int last, int cols) {
+        if (i < last || (cols & 63) == 0) {
+            return row[i];
+        }
+        return row[i] | ((row[0] & 1L) << (cols & 63));
+    }
+
+    /**
+     * The word east of word <tt>i</tt>.  For the last word of a full row
+     * this is the first word, wrapped around.
+     */
+    private static long eastOf(long[] row, int i, int last, int cols) {
+        if (i < last) {
+            return row[i + 1];
+        }
+        return (cols & 63) == 0 ? row[0] : 0L;
+    }
+
+    /**
+     * Return true if the same cells always produce the same next
+     * generation.
+     */
+    public boolean isDeterministic() {
+        return true;
     }
 
     /**
@@ -104,6 +465,26 @@ public class RuleSet {
         return mName;
     }
 
+    /**
+     * Get the rule in <tt>B3/S23</tt> notation, as <tt>parse()</tt> reads
+     * it.
+     */
+    public String getRuleString() {
+        StringBuilder buf = new StringBuilder("B");
+        for (int i = 0; i <= 8; i++) {
+            if ((mBornMask & (1 << i)) != 0) {
+                buf.append(i);
+            }
+        }
+        buf.append("/S");
+        for (int i = 0; i <= 8; i++) {
+            if ((mSurviveMask & (1 << i)) != 0) {
+                buf.append(i);
+            }
+        }
+        return buf.toString();
+    }
+
     /**
      * Get the short name of this ruleset.
      *
@@ -8,14 +8,12 @@ import java.net.URL;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
-import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.stage.Modality;
-import javafx.stage.Screen;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,7 +80,6 @@ public class Setup {
     @SuppressWarnings("unused")
     public void onOk(ActionEvent evt) {
         // validate that we've got reasonable numbers
-        Rectangle2D primaryScreenBounds = Screen.getPrimary().getVisualBounds();
         int rows;
         int columns;
         int cellSize;
@@ -96,9 +93,11 @@ public class Setup {
                 alert.setContentText(UIStrings.getString(UIStrings.ERROR_TEXT_DIMENSIONS_SMALL));
                 alert.showAndWait();
             } else {
-                if (cellSize * columns > primaryScreenBounds.getWidth() ||
-                        cellSize * rows > primaryScreenBounds.getHeight()) {
-                    // dimension(s) too large to fit on screen
+                // the window only shows part of a big field, but the whole field has to fit in
+                // memory: two generations, a bit per cell
+                long fieldBytes = 2L * rows * ((columns + 63) / 64) * 8;
+                if (fieldBytes > Runtime.getRuntime().maxMemory() / 2) {
+                    // dimension(s) too large to hold
                     Alert alert = new Alert(Alert.AlertType.ERROR);
                     alert.setContentText(UIStrings.getString(UIStrings.ERROR_TEXT_DIMENSIONS_LARGE));
                     alert.showAndWait();
@@ -3,6 +3,8 @@ package com.loomcom.automata;
  * Copyright 7/10/18 by Stephen Beitzel
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.LinkedList;
 import java.util.Map;
@@ -15,7 +17,9 @@ import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ChoiceBox;
@@ -24,8 +28,14 @@ import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.RadioMenuItem;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.Toggle;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.stage.FileChooser;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
+import javafx.util.StringConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,10 +47,19 @@ import org.slf4j.LoggerFactory;
 public class SimWindow implements Observer {
     private static final Logger __l = LoggerFactory.getLogger(SimWindow.class);
 
+    /** The speed choice for running flat out. */
+    private static final int SPEED_MAX = 0;
+
+    /** Ticks a second above which generations are run several a tick. */
+    private static final int MAX_TICK_RATE = 60;
+
     @FXML public MenuItem _newItem;
+    @FXML public MenuItem _openPatternItem;
+    @FXML public MenuItem _savePatternItem;
     @FXML public MenuItem _quitItem;
     @FXML public CheckMenuItem _showOutlinesItem;
     @FXML public CheckMenuItem _showAgingItem;
+    @FXML public CheckMenuItem _pauseWhenSettledItem;
     @FXML public MenuItem _editColorsItem;
     @FXML public MenuItem _clearDisplayItem;
     @FXML public Menu _menuGlider;
@@ -55,7 +74,7 @@ public class SimWindow implements Observer {
     public Button _stepButton;
 
     private Stage _stage;
-    private UpdateThread _updateThread;
+    private SimulationScheduler _scheduler;
     private ToggleGroup _shapeGroup;
     private ToggleGroup _ruleGroup;
 
@@ -63,6 +82,8 @@ public class SimWindow implements Observer {
     private boolean[][] _shapeToDraw = null;
     private int _lastCellX = -1;
     private int _lastCellY = -1;
+    private double _lastDragX;
+    private double _lastDragY;
 
     static void display(Stage parent, int columns, int rows, int cellSize) {
         try {
@@ -75,11 +96,19 @@ public class SimWindow implements Observer {
             Parent root = loader.load();
             SimWindow sw = loader.getController();
             sw._stage = stage;
-            sw.initCellModel(rows, columns, cellSize);
 
-            int canvasHeight = cellSize * columns;
+            // The panel is a view onto the field, as big as the field or the screen allows.
+            Rectangle2D screen = Screen.getPrimary().getVisualBounds();
+            int viewWidth = (int) Math.min((long) cellSize * columns, (long) screen.getWidth() - 20);
+            int viewHeight = (int) Math.min((long) cellSize * rows, (long) screen.getHeight() - 120);
+            sw.initCellModel(columns, rows, cellSize, viewWidth, viewHeight);
+            stage.setOnHidden(event -> {
+                sw.stopSimulation();
+                sw.stopRendering();
+            });
+
             stage.setTitle(UIStrings.getString(UIStrings.WINDOW_SIM_TITLE));
-            stage.setScene(new javafx.scene.Scene(root, Math.max(canvasHeight, 410), 90 + canvasHeight));
+            stage.setScene(new javafx.scene.Scene(root, Math.max(viewWidth, 410), 90 + viewHeight));
             stage.show();
             stage.centerOnScreen();
         } catch (Exception e) {
@@ -258,49 +287,98 @@ public class SimWindow implements Observer {
                                                              Integer.valueOf(2),
                                                              Integer.valueOf(5),
                                                              Integer.valueOf(10),
-                                                             Integer.valueOf(20)));
+                                                             Integer.valueOf(20),
+                                                             Integer.valueOf(30),
+                                                             Integer.valueOf(60),
+                                                             Integer.valueOf(300),
+                                                             Integer.valueOf(1200),
+                                                             Integer.valueOf(6000),
+                                                             Integer.valueOf(SPEED_MAX)));
+        _speedBox.setConverter(new StringConverter<Integer>() {
+            @Override
+            public String toString(Integer speed) {
+                return speed == null ? "" : speed.intValue() == SPEED_MAX
+                        ? UIStrings.getString(UIStrings.SPEED_MAX) : speed.toString();
+            }
+
+            @Override
+            public Integer fromString(String s) {
+                for (Integer speed : _speedBox.getItems()) {
+                    if (toString(speed).equals(s)) {
+                        return speed;
+                    }
+                }
+                return null;
+            }
+        });
         _speedBox.getSelectionModel().select(4);
 
         // SBTODO set localized strings on menus, buttons, labels
         _stepButton.setText(UIStrings.getString(UIStrings.BUTTON_STEP));
         _menuGlider.setText(UIStrings.getString(UIStrings.MENU_GLIDER));
+
+        // the generation label is brought up to date along with the cells, once a frame
+        _simCanvas.addFrameListener(this::showGeneration);
     }
 
-    private void initCellModel(int rows, int columns, int cellSize) {
+    private void initCellModel(int columns, int rows, int cellSize, int viewWidth, int viewHeight) {
         RuleSet selectedSet = (RuleSet) _ruleGroup.getSelectedToggle().getUserData();
-        CellModel freshModel = new CellModel(rows, columns, selectedSet);
+        CellModel freshModel = new CellModel(columns, rows, selectedSet);
+        freshModel.setParallelism(Runtime.getRuntime().availableProcessors());
         freshModel.addObserver(this);
         if (_simCanvas.getModel() != null) {
             _simCanvas.getModel().deleteObserver(this);
         }
-        _simCanvas.setModel(freshModel, cellSize);
+        _simCanvas.setModel(freshModel, cellSize, viewWidth, viewHeight);
         _simCanvas.schedulePaint();
-        if (_updateThread != null) {
-            _updateThread.doStop();
-        }
-        _updateThread = new UpdateThread(freshModel);
+        stopSimulation();
+        _scheduler = new SimulationScheduler(freshModel);
         onSetSpeed(null);
-        _updateThread.start();
+        _scheduler.start();
     }
 
     private void ruleSetChanged(RuleSet rs) {
-        if (_simCanvas.getModel() != null) {
-            _simCanvas.getModel().setRuleSet(rs);
+        CellModel model = _simCanvas.getModel();
+        if (model != null && _scheduler != null) {
+            // the scheduler's thread may be in the middle of a generation
+            _scheduler.submit(() -> model.setRuleSet(rs));
         }
     }
 
+    @FXML
+    public void onPress(MouseEvent event) {
+        _lastDragX = event.getX();
+        _lastDragY = event.getY();
+        // a new stroke doesn't join on to the last one
+        _lastCellX = -1;
+        _lastCellY = -1;
+    }
+
     @FXML
     public void onDrag(MouseEvent event) {
-        CellModel model = _simCanvas.getModel();
-        double x = event.getX();
-        double y = event.getY();
-        int cellX = (int) (x / _simCanvas.getCellSize());
-        int cellY = (int) (y / _simCanvas.getCellSize());
+        if (!event.isPrimaryButtonDown()) {
+            // drag with the other buttons to move the view around
+            _simCanvas.pan(event.getX() - _lastDragX, event.getY() - _lastDragY);
+            _lastDragX = event.getX();
+            _lastDragY = event.getY();
+            return;
+        }
+
+        int cellX = _simCanvas.cellAtX(event.getX());
+        int cellY = _simCanvas.cellAtY(event.getY());
 
         boolean drawOrErase = !event.isShiftDown(); // hold down shift to erase (set false)
 
         if (cellX != _lastCellX || cellY != _lastCellY) {
-            model.setCell(cellX, cellY, drawOrErase);
+            // The mouse may have skipped cells since the last event, so
+            // fill in the line between them, all as one edit.
+            CellEdits edits = new CellEdits();
+            if (_lastCellX < 0) {
+                edits.set(cellX, cellY, drawOrErase);
+            } else {
+                edits.line(_lastCellX, _lastCellY, cellX, cellY, drawOrErase);
+            }
+            _scheduler.submit(edits);
             _lastCellX = cellX;
             _lastCellY = cellY;
         }
@@ -308,23 +386,38 @@ public class SimWindow implements Observer {
 
     @FXML
     public void onClick(MouseEvent event) {
-        CellModel model = _simCanvas.getModel();
-        double x = event.getX();
-        double y = event.getY();
-        int cellX = (int) (x / _simCanvas.getCellSize());
-        int cellY = (int) (y / _simCanvas.getCellSize());
+        if (event.getButton() != MouseButton.PRIMARY || !event.isStillSincePress()) {
+            return;
+        }
+        int cellX = _simCanvas.cellAtX(event.getX());
+        int cellY = _simCanvas.cellAtY(event.getY());
 
+        // the simulation may be running, so leave it to apply the edit
+        CellEdits edits = new CellEdits();
         if (_shapeToDraw != null) {
-            model.drawShape(cellX, cellY, _shapeToDraw);
+            edits.shape(cellX, cellY, _shapeToDraw);
         } else {
-            model.flipCell(cellX, cellY);
+            edits.flip(cellX, cellY);
+        }
+        _scheduler.submit(edits);
+    }
+
+    /**
+     * Zoom in or out around the mouse with the scroll wheel.
+     */
+    @FXML
+    public void onScroll(ScrollEvent event) {
+        if (event.getDeltaY() == 0) {
+            return;
         }
+        _simCanvas.zoomStep(event.getDeltaY() > 0 ? 1 : -1, event.getX(), event.getY());
+        event.consume();
     }
 
     @SuppressWarnings("unused")
     private void onPause(ActionEvent evt) {
-        if (_updateThread != null) {
-            _updateThread.pause();
+        if (_scheduler != null) {
+            _scheduler.pause();
             _startButton.setText(UIStrings.getString(UIStrings.BUTTON_START));
             _startButton.setOnAction(this::onStart);
             _stepButton.setDisable(false);
@@ -334,11 +427,11 @@ public class SimWindow implements Observer {
     @FXML
     @SuppressWarnings("unused")
     public void onStart(ActionEvent evt) {
-        if (_updateThread != null && _updateThread.isPaused()) {
+        if (_scheduler != null && _scheduler.isPaused()) {
             _startButton.setText(UIStrings.getString(UIStrings.BUTTON_PAUSE));
             _startButton.setOnAction(this::onPause);
             _stepButton.setDisable(true);
-            _updateThread.go();
+            _scheduler.resume();
         }
     }
 
@@ -365,6 +458,85 @@ public class SimWindow implements Observer {
         _simCanvas.getModel().reset();
     }
 
+    @FXML
+    @SuppressWarnings("unused")
+    public void onOpenPattern(ActionEvent evt) {
+        FileChooser chooser = patternChooser(UIStrings.DIALOG_OPEN_TITLE);
+        File file = chooser.showOpenDialog(_stage);
+        if (file == null) {
+            return;
+        }
+        onPause(evt);
+        CellModel model = _simCanvas.getModel();
+        model.reset();
+        try {
+            String rule = PatternIO.read(file.toPath(), model, model.getCols() / 2, model.getRows() / 2);
+            if (rule != null) {
+                selectRule(rule.split(":")[0]);
+            }
+        } catch (IOException e) {
+            __l.error("Couldn't read pattern " + file, e);
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setContentText(UIStrings.getString(UIStrings.ERROR_TEXT_PATTERN_READ) + " " + e.getMessage());
+            alert.showAndWait();
+        }
+    }
+
+    @FXML
+    @SuppressWarnings("unused")
+    public void onSavePattern(ActionEvent evt) {
+        FileChooser chooser = patternChooser(UIStrings.DIALOG_SAVE_TITLE);
+        File file = chooser.showSaveDialog(_stage);
+        if (file == null) {
+            return;
+        }
+        try {
+            // save the generation on screen, which is whole even if the simulation is running
+            CellSnapshot frame = _simCanvas.getFrame();
+            PatternIO.write(frame != null ? frame.toModel() : _simCanvas.getModel(), file.toPath());
+        } catch (IOException e) {
+            __l.error("Couldn't save pattern " + file, e);
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setContentText(UIStrings.getString(UIStrings.ERROR_TEXT_PATTERN_WRITE) + " " + e.getMessage());
+            alert.showAndWait();
+        }
+    }
+
+    private FileChooser patternChooser(String titleKey) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(UIStrings.getString(titleKey));
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter(UIStrings.getString(UIStrings.FILTER_RLE), "*.rle"),
+                new FileChooser.ExtensionFilter(UIStrings.getString(UIStrings.FILTER_LIFE106), "*.lif", "*.life"),
+                new FileChooser.ExtensionFilter(UIStrings.getString(UIStrings.FILTER_PLAINTEXT), "*.cells", "*.txt"));
+        return chooser;
+    }
+
+    /**
+     * Switch to the rule named by a pattern file, picking it from the rule
+     * menu if it's there.
+     */
+    private void selectRule(String rule) {
+        RuleSet rs;
+        try {
+            rs = RuleSet.parse(rule);
+        } catch (IllegalArgumentException e) {
+            __l.warn("Ignoring the pattern's rule: {}", rule);
+            return;
+        }
+        for (Toggle toggle : _ruleGroup.getToggles()) {
+            RuleSet candidate = (RuleSet) toggle.getUserData();
+            if (!(candidate instanceof ChanceRuleSet)
+                    && candidate.getRuleString().equals(rs.getRuleString())) {
+                _ruleGroup.selectToggle(toggle);
+                ruleSetChanged(candidate);
+                return;
+            }
+        }
+        _ruleGroup.selectToggle(null);
+        ruleSetChanged(rs);
+    }
+
     @FXML
     @SuppressWarnings("unused")
     public void onEditColors(ActionEvent evt) {
@@ -376,16 +548,8 @@ public class SimWindow implements Observer {
     @SuppressWarnings("unused")
     public void onQuit(ActionEvent evt) {
         // shutdown any worker thread
-        if (_updateThread != null) {
-            try {
-                // Offer a short window to politely join with
-                // the thread before shutting down, good manners
-                _updateThread.doStop();
-                _updateThread.join(500);
-            } catch (InterruptedException ex) {
-                // if we had logging enabled, we would log this
-            }
-        }
+        stopSimulation();
+        stopRendering();
         Platform.exit();
     }
 
@@ -400,8 +564,18 @@ public class SimWindow implements Observer {
 
     @Override
     public void update(Observable o, Object arg) {
-        // the cell model has updated. time to redraw! Remember to make sure that happens on the FX thread.
-        Runnable r = () -> _generationLabel.setText(Integer.toString(_simCanvas.getModel().getGeneration()));
+        // The generation label is redrawn along with the cells, so only a
+        // settled field needs a trip to the FX thread of its own.
+        if (!(arg instanceof StabilityEvent)) {
+            return;
+        }
+        Runnable r = () -> {
+            // the field has died or settled down, so there's nothing new to see
+            __l.info("Cell field settled: {}", arg);
+            if (_pauseWhenSettledItem.isSelected()) {
+                onPause(null);
+            }
+        };
         if (Platform.isFxApplicationThread()) {
             r.run();
         } else {
@@ -409,10 +583,49 @@ public class SimWindow implements Observer {
         }
     }
 
+    private void showGeneration() {
+        // the frame just drawn, so the number always matches the cells
+        CellSnapshot frame = _simCanvas.getFrame();
+        if (frame != null) {
+            double rate = _scheduler == null ? 0 : _scheduler.getMeasuredRate();
+            _generationLabel.setText(rate > 0
+                    ? String.format("%d (%.0f/s)", frame.getGeneration(), rate)
+                    : Integer.toString(frame.getGeneration()));
+        }
+    }
+
+    /**
+     * Stop running generations for good, giving the last one a moment
+     * to finish.
+     */
+    private void stopSimulation() {
+        if (_scheduler != null) {
+            try {
+                // Offer a short window to politely join with
+                // the thread before shutting down, good manners
+                _scheduler.stop();
+                _scheduler.join(500);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void stopRendering() {
+        _simCanvas.stopRendering();
+        __l.debug("Frames rendered: {}, skipped: {}",
+                  _simCanvas.getRenderedFrames(), _simCanvas.getSkippedFrames());
+    }
+
     @FXML
     @SuppressWarnings("unused")
     public void onShowAging(ActionEvent evt) {
-        _simCanvas.setCellAging(_showAgingItem.isSelected());
+        boolean aging = _showAgingItem.isSelected();
+        _simCanvas.setCellAging(aging);
+        CellModel model = _simCanvas.getModel();
+        if (model != null && _scheduler != null) {
+            _scheduler.submit(() -> model.setAgeTracking(aging));
+        }
     }
 
     @FXML
@@ -425,8 +638,16 @@ public class SimWindow implements Observer {
     @SuppressWarnings("unused")
     public void onSetSpeed(ActionEvent evt) {
         int speed = _speedBox.getValue().intValue();
-        if (_updateThread != null) {
-            _updateThread.setSleepInterval(1000 / speed);
+        if (_scheduler == null) {
+            return;
+        }
+        if (speed == SPEED_MAX) {
+            _scheduler.setMaxSpeed();
+        } else if (speed <= MAX_TICK_RATE) {
+            _scheduler.setFixedRate(speed);
+        } else {
+            // faster than the screen can show, so run several generations a frame
+            _scheduler.setMultiStep(MAX_TICK_RATE, speed / MAX_TICK_RATE);
         }
     }
 
@@ -0,0 +1,409 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a cell model's generations on a thread of its own, at a chosen
+ * pace.  There are three:
+ *
+ * <ul>
+ * <li><b>Fixed rate</b>: one generation a tick, the ticks falling on a
+ * fixed schedule.  The time a generation takes comes out of the wait
+ * for the next tick rather than being added to it, so the rate doesn't
+ * drift below the one asked for.</li>
+ * <li><b>Multi-step</b>: several generations a tick, the ticks on a fixed
+ * schedule, for running faster than anyone could watch while the
+ * observers are still only told once a tick.</li>
+ * <li><b>Max speed</b>: one generation after another with no waiting at
+ * all, for seeing how fast the model can go.</li>
+ * </ul>
+ *
+ * If the model can't keep up, the schedule slips rather than the ticks
+ * bunching up to catch up afterwards.  The scheduler starts paused.
+ * <tt>pause()</tt> waits for the tick under way to finish, so once it
+ * returns nothing else is changing the model.
+ *
+ * Edits and other changes made while the model is running, such as a
+ * new rule set, go through <tt>submit()</tt>, and are applied by the
+ * scheduler's thread between generations, or straight away if nothing
+ * is running.
+ */
+public class SimulationScheduler {
+    private static final Logger __l = LoggerFactory.getLogger(SimulationScheduler.class);
+
+    /** Ticks the schedule may fall behind before it gives up on them. */
+    private static final int MAX_LAG_TICKS = 4;
+
+    /** How often the measured rate is brought up to date. */
+    private static final long RATE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * The ways of pacing the generations.
+     */
+    public enum Mode {
+        FIXED_RATE,
+        MULTI_STEP,
+        MAX_SPEED
+    }
+
+    private enum State {
+        PAUSED,
+        RUNNING,
+        STOPPED
+    }
+
+    private final CellModel mCellModel;
+    private final Thread mThread;
+
+    // Everything below is guarded by mLock; mChanged is signalled
+    // whenever any of it changes.
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mChanged = mLock.newCondition();
+    private State mState = State.PAUSED;
+    private boolean mTicking;           // A tick, or changes made while paused, under way
+    private Mode mMode = Mode.FIXED_RATE;
+    private long mPeriod = TimeUnit.SECONDS.toNanos(1);     // Between ticks
+    private int mGenerationsPerTick = 1;
+    private long mNextTick;             // When the next tick is due, by nanoTime()
+
+    private long mRateStart;            // Only touched by the scheduler's thread
+    private int mRateGenerations;
+    private volatile double mMeasuredRate;
+
+    SimulationScheduler(CellModel model) {
+        mCellModel = model;
+        mThread = new Thread(this::run, "simulation");
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Start the scheduler's thread.  It stays paused until
+     * <tt>resume()</tt>.
+     */
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * Run one generation a tick, <tt>ticksPerSecond</tt> ticks a second.
+     */
+    void setFixedRate(double ticksPerSecond) {
+        setPace(Mode.FIXED_RATE, ticksPerSecond, 1);
+    }
+
+    /**
+     * Run <tt>generations</tt> generations a tick, <tt>ticksPerSecond</tt>
+     * ticks a second.
+     */
+    void setMultiStep(double ticksPerSecond, int generations) {
+        setPace(Mode.MULTI_STEP, ticksPerSecond, generations);
+    }
+
+    /**
+     * Run generations as fast as the model can compute them.
+     */
+    void setMaxSpeed() {
+        setPace(Mode.MAX_SPEED, 0, 1);
+    }
+
+    private void setPace(Mode mode, double ticksPerSecond, int generations) {
+        if (mode != Mode.MAX_SPEED && !(ticksPerSecond > 0)) {
+            throw new IllegalArgumentException("Ticks per second must be positive: " + ticksPerSecond);
+        }
+        if (generations < 1) {
+            throw new IllegalArgumentException("Generations per tick must be positive: " + generations);
+        }
+        mLock.lock();
+        try {
+            mMode = mode;
+            mPeriod = mode == Mode.MAX_SPEED ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / ticksPerSecond);
+            mGenerationsPerTick = generations;
+            // Start the new pace from now, rather than waiting out the old one.
+            mNextTick = System.nanoTime();
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    Mode getMode() {
+        mLock.lock();
+        try {
+            return mMode;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Start running generations, if paused.
+     */
+    void resume() {
+        mLock.lock();
+        try {
+            if (mState == State.PAUSED) {
+                mState = State.RUNNING;
+                mNextTick = System.nanoTime();
+                mChanged.signalAll();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop running generations until <tt>resume()</tt>, waiting for the
+     * tick under way, if any, to finish.
+     */
+    void pause() {
+        mLock.lock();
+        try {
+            if (mState == State.RUNNING) {
+                mState = State.PAUSED;
+                mChanged.signalAll();
+            }
+            if (Thread.currentThread() != mThread) {
+                // An observer pausing from inside the tick can't wait for it.
+                awaitIdle();
+                // Edits queued as the last tick ended would wait for the
+                // next resume, so make them now.
+                applyPending();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop for good.  The tick under way, if any, finishes by itself;
+     * use <tt>join()</tt> to wait for it.
+     */
+    void stop() {
+        mLock.lock();
+        try {
+            mState = State.STOPPED;
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Wait up to <tt>millis</tt> milliseconds for the thread to finish
+     * after <tt>stop()</tt>.
+     */
+    void join(long millis) throws InterruptedException {
+        mThread.join(millis);
+    }
+
+    boolean isPaused() {
+        mLock.lock();
+        try {
+            return mState == State.PAUSED;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Return the generations run per second, measured over the last half
+     * second or so of running.
+     */
+    double getMeasuredRate() {
+        return mMeasuredRate;
+    }
+
+    /**
+     * Edit the model safely from any thread.  While running, the edits
+     * are queued for the scheduler's thread, which applies them before
+     * its next generation, or at once if it's waiting for the next tick.
+     * While paused nothing else touches the model, so they're applied
+     * here and now.
+     */
+    void submit(CellEdits edits) {
+        submit(() -> mCellModel.apply(edits));
+    }
+
+    /**
+     * Make any other change to the model safely from any thread, in the
+     * same way and in the same order as submitted edits.
+     */
+    void submit(Runnable change) {
+        mLock.lock();
+        try {
+            mCellModel.submit(change);
+            if (mState == State.RUNNING || mTicking) {
+                mChanged.signalAll();
+            } else {
+                applyPending();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Apply the queued changes on the calling thread, which holds the
+     * lock while no tick is under way.  The lock is let go meanwhile, the
+     * same as for a tick, so the observers the changes notify may call
+     * back into the scheduler from any thread; <tt>mTicking</tt> keeps
+     * the scheduler's thread, and anyone else, off the model until then.
+     */
+    private void applyPending() {
+        while (mCellModel.hasPendingChanges()) {
+            mTicking = true;
+            mLock.unlock();
+            try {
+                mCellModel.applyPendingChanges();
+            } finally {
+                mLock.lock();
+                mTicking = false;
+                mChanged.signalAll();
+            }
+        }
+    }
+
+    /**
+     * Wait, holding the lock, until no tick is under way.
+     */
+    private void awaitIdle() {
+        boolean interrupted = false;
+        while (mTicking) {
+            try {
+                mChanged.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                int generations = awaitTick();
+                if (generations < 0) {
+                    return;
+                }
+                try {
+                    if (generations == 0) {
+                        mCellModel.applyPendingChanges();
+                    } else {
+                        mCellModel.transform(generations);
+                    }
+                } finally {
+                    endTick();
+                }
+                if (generations > 0) {
+                    measure(generations);
+                }
+            }
+        } catch (InterruptedException e) {
+            __l.warn("Simulation interrupted, stopping", e);
+        } finally {
+            mMeasuredRate = 0;
+        }
+    }
+
+    /**
+     * Wait until a tick is due, and return how many generations to run
+     * in it, 0 to only apply the edits submitted meanwhile, or -1 to
+     * stop.
+     */
+    private int awaitTick() throws InterruptedException {
+        mLock.lock();
+        try {
+            while (true) {
+                if (mState == State.STOPPED) {
+                    return -1;
+                }
+                if (mTicking) {
+                    // Another thread is applying changes made while paused.
+                    mChanged.await();
+                    continue;
+                }
+                if (mState == State.PAUSED) {
+                    mMeasuredRate = 0;
+                    mRateStart = 0;
+                    mChanged.await();
+                    continue;
+                }
+                if (mMode != Mode.MAX_SPEED) {
+                    long wait = mNextTick - System.nanoTime();
+                    if (wait > 0 && mCellModel.hasPendingChanges()) {
+                        // Don't keep edits waiting for a slow tick.
+                        mTicking = true;
+                        return 0;
+                    }
+                    if (wait > 0) {
+                        // Woken early if the pace or state changes.
+                        mChanged.awaitNanos(wait);
+                        continue;
+                    }
+                    mNextTick += mPeriod;
+                    long lag = System.nanoTime() - mNextTick;
+                    if (lag > MAX_LAG_TICKS * mPeriod) {
+                        mNextTick += lag;
+                    }
+                }
+                mTicking = true;
+                return mGenerationsPerTick;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void endTick() {
+        mLock.lock();
+        try {
+            mTicking = false;
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void measure(int generations) {
+        long now = System.nanoTime();
+        if (mRateStart == 0) {
+            mRateStart = now;
+            mRateGenerations = 0;
+            return;
+        }
+        mRateGenerations += generations;
+        long elapsed = now - mRateStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            mMeasuredRate = mRateGenerations * 1e9 / elapsed;
+            mRateStart = now;
+            mRateGenerations = 0;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands snapshots of a cell model from the thread changing it to one
+ * reading thread, through a triple buffer.  The model's thread fills the
+ * back buffer and swaps it with the middle one; the reader swaps the
+ * middle one, if it's new, with the front one it reads from.  Each swap
+ * is a single atomic exchange, so neither side ever waits for the other,
+ * and the model's thread never writes the buffer the reader is looking
+ * at.
+ *
+ * Every change the model's observers are told of is published, but each
+ * buffer remembers which of the model's tiles have changed since it was
+ * last filled, and only those are copied into it, so keeping the
+ * snapshots up to date costs in proportion to the activity, not the size
+ * of the field.  Each reading thread needs a reader of its own, from
+ * <tt>CellModel.newSnapshotReader()</tt>.
+ */
+public class SnapshotReader {
+    /** Set on the middle buffer's index when it holds a snapshot not yet taken. */
+    private static final int FRESH = 4;
+
+    private final CellSnapshot[] mBuffers = new CellSnapshot[3];
+    private final boolean[][] mStale;       // Tiles changed since each buffer was filled
+    private final boolean[] mChanged;       // Tiles changed since the last publish
+    private final AtomicInteger mMiddle = new AtomicInteger(2);
+    private int mBack = 0;                  // Only touched by the model's thread
+    private int mFront = 1;                 // Only touched by the reading thread
+
+    SnapshotReader(int cols, int rows, int tiles) {
+        mStale = new boolean[mBuffers.length][tiles];
+        mChanged = new boolean[tiles];
+        for (int i = 0; i < mBuffers.length; i++) {
+            mBuffers[i] = new CellSnapshot(cols, rows, tiles);
+        }
+        markAll();
+    }
+
+    /**
+     * Return the newest snapshot published.  It stays as it is until the
+     * next call.  Only the one reading thread may call this.
+     */
+    public CellSnapshot latest() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & 3;
+        }
+        return mBuffers[mFront];
+    }
+
+    /**
+     * Bring the back buffer up to date with the model and make it the
+     * newest.  This, and the marking of tiles, is only for the thread
+     * changing the model.
+     */
+    void publish(CellModel model) {
+        CellSnapshot back = mBuffers[mBack];
+        model.fillSnapshot(back, mStale[mBack]);
+        // A middle snapshot the reader hasn't taken is about to be
+        // dropped, so its changes go along with this one.  If the reader
+        // takes it meanwhile, they're only counted twice.
+        int middle = mMiddle.get();
+        back.setChangedTiles(mChanged, (middle & FRESH) != 0 ? mBuffers[middle & 3] : null);
+        java.util.Arrays.fill(mChanged, false);
+        mBack = mMiddle.getAndSet(mBack | FRESH) & 3;
+    }
+
+    /**
+     * Note that tile <tt>index</tt> of the model has changed.
+     */
+    void markTile(int index) {
+        for (boolean[] stale : mStale) {
+            stale[index] = true;
+        }
+        mChanged[index] = true;
+    }
+
+    /**
+     * Note that the tiles set in <tt>changed</tt> have changed.
+     */
+    void markTiles(boolean[] changed) {
+        for (int t = 0; t < changed.length; t++) {
+            if (changed[t]) {
+                markTile(t);
+            }
+        }
+    }
+
+    /**
+     * Note that the tiles whose cells are still getting older have
+     * changed, given how many generations each has gone unrecomputed.
+     * Ages stop changing once a tile has been quiet for longer than
+     * <tt>MAX_AGE</tt>.
+     */
+    void markAgeing(int[] quiet) {
+        for (int t = 0; t < quiet.length; t++) {
+            if (quiet[t] <= CellModel.MAX_AGE) {
+                markTile(t);
+            }
+        }
+    }
+
+    /**
+     * Note that every tile has changed.
+     */
+    void markAll() {
+        for (boolean[] stale : mStale) {
+            java.util.Arrays.fill(stale, true);
+        }
+        java.util.Arrays.fill(mChanged, true);
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a great many small random soups, side by side, to see what a rule
+ * does with them: how many die out, freeze or oscillate, how long they
+ * take to settle, and with what periods.
+ *
+ * The soups are handed out on a fork/join pool, which steals work to keep
+ * every core busy however unevenly the soups run.  Each worker thread
+ * keeps one <tt>CellModel</tt> and reuses it from one soup to the next, so
+ * nothing is allocated per soup but its result.  Soup <tt>i</tt> always
+ * starts from the same cells, given the search seed, so any soup can be
+ * looked at again on its own with <tt>getSoupSeed()</tt>.
+ */
+public class SoupSearch {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Soups per task below which the work isn't split any more. */
+    private static final int SPLIT_THRESHOLD = 4;
+
+    private final RuleSet mRuleSet;
+    private final int mCols;
+    private final int mRows;
+    private double mDensity = 0.5;
+    private int mMaxGenerations = 10000;
+    private long mSeed;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Create a search of soups <tt>cols</tt> by <tt>rows</tt> cells,
+     * wrapping around at the edges, under rule <tt>rs</tt>.
+     */
+    public SoupSearch(RuleSet rs, int cols, int rows) {
+        mRuleSet = rs;
+        mCols = cols;
+        mRows = rows;
+    }
+
+    /**
+     * Set the chance, between 0.0 and 1.0, that a soup cell starts alive.
+     */
+    public void setDensity(double density) {
+        mDensity = density;
+    }
+
+    /**
+     * Set how many generations a soup gets to settle down in.
+     */
+    public void setMaxGenerations(int n) {
+        mMaxGenerations = n;
+    }
+
+    /**
+     * Set the seed the soups' own seeds are made from.
+     */
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Set the number of worker threads.
+     */
+    public void setThreads(int n) {
+        mThreads = Math.max(1, n);
+    }
+
+    /**
+     * Return the seed for <tt>CellModel.randomize()</tt> which makes soup
+     * <tt>index</tt>.
+     */
+    public long getSoupSeed(int index) {
+        return mSeed + (index + 1) * GOLDEN_GAMMA;
+    }
+
+    /**
+     * Run soups <tt>0</tt> to <tt>count - 1</tt>, and wait for them all.
+     */
+    public Summary run(int count) {
+        Result[] results = new Result[count];
+        ThreadLocal<CellModel> models = ThreadLocal.withInitial(() -> {
+            CellModel model = new CellModel(mCols, mRows, mRuleSet);
+            model.setFastForward(true);
+            return model;
+        });
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(mThreads);
+        try {
+            pool.invoke(new SoupTask(0, count, results, models));
+        } finally {
+            pool.shutdown();
+        }
+        return new Summary(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Run one soup on this thread's model.
+     */
+    private Result runSoup(int index, CellModel model) {
+        long seed = getSoupSeed(index);
+        model.reset();
+        model.randomize(mDensity, seed);
+        // Once settled, fast-forwarding skips straight to the end.
+        model.transform(mMaxGenerations);
+        return new Result(index, seed, model.getPopulation(), model.getStability());
+    }
+
+    /**
+     * A range of soups, split in half until small enough to run.
+     */
+    private class SoupTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mFirst;
+        private final int mEnd;
+        private final Result[] mResults;
+        private final ThreadLocal<CellModel> mModels;
+
+        SoupTask(int first, int end, Result[] results, ThreadLocal<CellModel> models) {
+            mFirst = first;
+            mEnd = end;
+            mResults = results;
+            mModels = models;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mFirst <= SPLIT_THRESHOLD) {
+                CellModel model = mModels.get();
+                for (int i = mFirst; i < mEnd; i++) {
+                    mResults[i] = runSoup(i, model);
+                }
+            } else {
+                int middle = (mFirst + mEnd) >>> 1;
+                invokeAll(new SoupTask(mFirst, middle, mResults, mModels),
+                          new SoupTask(middle, mEnd, mResults, mModels));
+            }
+        }
+    }
+
+    /**
+     * How one soup turned out.
+     */
+    public static class Result {
+        private final int mIndex;
+        private final long mSeed;
+        private final long mPopulation;
+        private final StabilityEvent mStability;
+
+        Result(int index, long seed, long population, StabilityEvent stability) {
+            mIndex = index;
+            mSeed = seed;
+            mPopulation = population;
+            mStability = stability;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public long getSeed() {
+            return mSeed;
+        }
+
+        /**
+         * The population after the last generation.
+         */
+        public long getPopulation() {
+            return mPopulation;
+        }
+
+        /**
+         * How the soup settled, or null if it was still going at the end.
+         */
+        public StabilityEvent getStability() {
+            return mStability;
+        }
+
+        /**
+         * The first generation of the soup's final cycle, or -1 if it
+         * didn't settle.
+         */
+        public int getSettledAt() {
+            return mStability == null ? -1 : mStability.getGeneration() - mStability.getPeriod();
+        }
+    }
+
+    /**
+     * The results of a search, added up.
+     */
+    public static class Summary {
+        private final List<Result> mResults;
+        private final long mElapsed;
+        private final Map<StabilityEvent.Kind, Integer> mKinds = new TreeMap<>();
+        private final Map<Integer, Integer> mPeriods = new TreeMap<>();
+        private int mUnsettled;
+        private long mTotalPopulation;
+        private long mTotalSettledAt;
+
+        Summary(Result[] results, long elapsed) {
+            mResults = Collections.unmodifiableList(Arrays.asList(results));
+            mElapsed = elapsed;
+            for (Result r : results) {
+                mTotalPopulation += r.getPopulation();
+                StabilityEvent s = r.getStability();
+                if (s == null) {
+                    mUnsettled++;
+                    continue;
+                }
+                mKinds.merge(s.getKind(), 1, Integer::sum);
+                if (s.getKind() == StabilityEvent.Kind.OSCILLATOR) {
+                    mPeriods.merge(s.getPeriod(), 1, Integer::sum);
+                }
+                mTotalSettledAt += r.getSettledAt();
+            }
+        }
+
+        /**
+         * Every soup's result, by index.
+         */
+        public List<Result> getResults() {
+            return mResults;
+        }
+
+        /**
+         * The number of soups which settled in the given way.
+         */
+        public int getCount(StabilityEvent.Kind kind) {
+            return mKinds.getOrDefault(kind, 0);
+        }
+
+        /**
+         * The number of soups still changing after the last generation.
+         */
+        public int getUnsettled() {
+            return mUnsettled;
+        }
+
+        /**
+         * The number of oscillating soups of each period.
+         */
+        public Map<Integer, Integer> getPeriods() {
+            return Collections.unmodifiableMap(mPeriods);
+        }
+
+        /**
+         * The soups which hadn't settled by the end, the interesting ones.
+         */
+        public List<Result> getUnsettledResults() {
+            List<Result> list = new ArrayList<>();
+            for (Result r : mResults) {
+                if (r.getStability() == null) {
+                    list.add(r);
+                }
+            }
+            return list;
+        }
+
+        public double getMeanPopulation() {
+            return mResults.isEmpty() ? 0 : (double) mTotalPopulation / mResults.size();
+        }
+
+        /**
+         * The mean generation at which the settled soups settled.
+         */
+        public double getMeanSettledAt() {
+            int settled = mResults.size() - mUnsettled;
+            return settled == 0 ? 0 : (double) mTotalSettledAt / settled;
+        }
+
+        /**
+         * The time the search took, in nanoseconds.
+         */
+        public long getElapsed() {
+            return mElapsed;
+        }
+    }
+}
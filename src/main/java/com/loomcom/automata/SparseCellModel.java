@@ -0,0 +1,365 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An unbounded cell model.  Unlike <tt>CellModel</tt>, which is a fixed
+ * size torus, this universe is a plane that stretches as far as an
+ * <tt>int</tt> coordinate goes in every direction, so growing patterns
+ * never run into themselves.
+ *
+ * The plane is stored as square chunks of <tt>CHUNK_SIZE</tt> cells, one
+ * <tt>long</tt> word per chunk row, kept in a hash map.  Chunks are
+ * allocated when something is born in them and dropped as soon as they
+ * are empty again, so memory follows the population rather than the
+ * area.
+ */
+public class SparseCellModel extends java.util.Observable {
+    /** Width and height of a chunk, in cells. */
+    public static final int CHUNK_SIZE = 64;
+
+    private static final long[] EMPTY = new long[CHUNK_SIZE];
+
+    private Map<Long, long[]> mChunks = new HashMap<>();
+    private Map<Long, long[]> mTempChunks = new HashMap<>();
+    private final ArrayDeque<long[]> mFreeChunks = new ArrayDeque<>();
+
+    private RuleSet mRuleSet;   // Rule set to use when transforming
+    private int mGeneration;    // Current "generation"
+
+    /**
+     * Create a new, empty universe.
+     *
+     * @param rs        The RuleSet to use at creation time
+     */
+    public SparseCellModel(RuleSet rs) {
+        setRuleSet(rs);
+    }
+
+    /**
+     * Return the boolean value of the cell at <tt>(x,y)</tt>
+     *
+     * @param x The cell <tt>x</tt> coordinate
+     * @param y The cell <tt>y</tt> coordinate
+     * @return  True if the cell is alive, false if not
+     */
+    public boolean getCell(int x, int y) {
+        long[] chunk = mChunks.get(key(x >> 6, y >> 6));
+        if (chunk == null) {
+            return false;
+        }
+        return (chunk[y & 63] & (1L << x)) != 0;
+    }
+
+    /**
+     * Toggle the cell at <tt>(x,y)</tt>.
+     *
+     * @param x The cell <tt>x</tt> coordinate.
+     * @param y The cell <tt>y</tt> coordinate.
+     */
+    public void flipCell(int x, int y) {
+        setCell(x, y, !getCell(x, y));
+    }
+
+    /**
+     * Set the cell at <tt>(x,y)</tt> with the supplied boolean value.
+     *
+     * @param x The cell <tt>x</tt> coordinate.
+     * @param y The cell <tt>y</tt> coordinate.
+     * @param b The value to set.
+     */
+    public void setCell(int x, int y, boolean b) {
+        put(x, y, b);
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * Set a cell without telling the observers.
+     */
+    private void put(int x, int y, boolean b) {
+        Long key = key(x >> 6, y >> 6);
+        long[] chunk = mChunks.get(key);
+        if (chunk == null) {
+            if (!b) {
+                return;
+            }
+            chunk = allocate();
+            mChunks.put(key, chunk);
+        }
+
+        if (b) {
+            chunk[y & 63] |= (1L << x);
+        } else {
+            chunk[y & 63] &= ~(1L << x);
+            if (isEmpty(chunk)) {
+                mFreeChunks.push(mChunks.remove(key));
+            }
+        }
+    }
+
+    /**
+     * Place a shape into the universe, centered on point <tt>(x,y)</tt>
+     *
+     * @param pattern   A 2D array of booleans representing the pattern bits.
+     */
+    public void drawShape(int x, int y, boolean[][] pattern) {
+        int width = Utilities.getWidth(pattern);
+        int height = Utilities.getHeight(pattern);
+
+        int originX = (x - width / 2);
+        int originY = (y - height / 2);
+
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                if (pattern[i][j]) {
+                    put(originX + i, originY + j, true);
+                }
+            }
+        }
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * Copy the living cells of a <tt>CellModel</tt> into this universe,
+     * with the model's top left corner at <tt>(originX, originY)</tt>.
+     */
+    public void load(CellModel model, int originX, int originY) {
+        for (int j = 0; j < model.getRows(); j++) {
+            for (int i = 0; i < model.getCols(); i++) {
+                if (model.getCell(i, j)) {
+                    put(originX + i, originY + j, true);
+                }
+            }
+        }
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * Copy the window of this universe with its top left corner at
+     * <tt>(originX, originY)</tt> into a <tt>CellModel</tt>, replacing
+     * whatever the model held.  The model's observers are told once, at
+     * the end.
+     */
+    public void store(CellModel model, int originX, int originY) {
+        for (int j = 0; j < model.getRows(); j++) {
+            for (int i = 0; i < model.getCols(); i++) {
+                model.putCell(i, j, getCell(originX + i, originY + j));
+            }
+        }
+        model.cellsChanged();
+    }
+
+    /**
+     * Reset the universe, clearing the data and setting the generation
+     * count back to 0.
+     */
+    public void reset() {
+        for (long[] chunk : mChunks.values()) {
+            java.util.Arrays.fill(chunk, 0L);
+            mFreeChunks.push(chunk);
+        }
+        mChunks.clear();
+        mGeneration = 0;
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * Return the current cell generation.
+     *
+     * @return  Cell generation.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Count the living cells in the universe.
+     */
+    public long getPopulation() {
+        long count = 0;
+        for (long[] chunk : mChunks.values()) {
+            for (long word : chunk) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of chunks currently allocated.
+     */
+    public int getChunkCount() {
+        return mChunks.size();
+    }
+
+    /**
+     * Transform to the next generation of cells.  Every allocated chunk
+     * and each of its neighbors is a candidate, since that's as far as
+     * anything can spread in one generation.
+     */
+    public void transform() {
+        if (mRuleSet == null) { return; }
+
+        Set<Long> candidates = new HashSet<>();
+        for (Long key : mChunks.keySet()) {
+            int cx = chunkX(key);
+            int cy = chunkY(key);
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    candidates.add(key(cx + dx, cy + dy));
+                }
+            }
+        }
+
+        for (Long key : candidates) {
+            long[] next = allocate();
+            if (transformChunk(chunkX(key), chunkY(key), next)) {
+                mTempChunks.put(key, next);
+            } else {
+                mFreeChunks.push(next);
+            }
+        }
+
+        // Recycle the old generation, then swap.
+        for (long[] chunk : mChunks.values()) {
+            java.util.Arrays.fill(chunk, 0L);
+            mFreeChunks.push(chunk);
+        }
+        mChunks.clear();
+        Map<Long, long[]> m = mChunks;
+        mChunks = mTempChunks;
+        mTempChunks = m;
+        mGeneration++;
+
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * Compute the next generation of one chunk into <tt>next</tt>.
+     *
+     * @return  True if anything in the chunk is alive.
+     */
+    private boolean transformChunk(int cx, int cy, long[] next) {
+        long[] nw = chunk(cx - 1, cy - 1);
+        long[] n = chunk(cx, cy - 1);
+        long[] ne = chunk(cx + 1, cy - 1);
+        long[] w = chunk(cx - 1, cy);
+        long[] c = chunk(cx, cy);
+        long[] e = chunk(cx + 1, cy);
+        long[] sw = chunk(cx - 1, cy + 1);
+        long[] s = chunk(cx, cy + 1);
+        long[] se = chunk(cx + 1, cy + 1);
+
+        long generation = mGeneration + 1;
+        int firstRow = cy * CHUNK_SIZE;
+        long any = 0;
+        for (int r = 0; r < CHUNK_SIZE; r++) {
+            long result;
+            if (r == 0) {
+                result = mRuleSet.nextWord(nw[63], n[63], ne[63],
+                                           w[0], c[0], e[0],
+                                           w[1], c[1], e[1],
+                                           generation, cx, firstRow);
+            } else if (r == CHUNK_SIZE - 1) {
+                result = mRuleSet.nextWord(w[62], c[62], e[62],
+                                           w[63], c[63], e[63],
+                                           sw[0], s[0], se[0],
+                                           generation, cx, firstRow + r);
+            } else {
+                result = mRuleSet.nextWord(w[r - 1], c[r - 1], e[r - 1],
+                                           w[r], c[r], e[r],
+                                           w[r + 1], c[r + 1], e[r + 1],
+                                           generation, cx, firstRow + r);
+            }
+            next[r] = result;
+            any |= result;
+        }
+        return any != 0;
+    }
+
+    /**
+     * The chunk at chunk coordinates <tt>(cx,cy)</tt>, or an empty one.
+     */
+    private long[] chunk(int cx, int cy) {
+        long[] chunk = mChunks.get(key(cx, cy));
+        return chunk != null ? chunk : EMPTY;
+    }
+
+    private long[] allocate() {
+        long[] chunk = mFreeChunks.poll();
+        return chunk != null ? chunk : new long[CHUNK_SIZE];
+    }
+
+    private static boolean isEmpty(long[] chunk) {
+        for (long word : chunk) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Long key(int cx, int cy) {
+        return ((long) cy << 32) | (cx & 0xffffffffL);
+    }
+
+    private static int chunkX(long key) {
+        return (int) key;
+    }
+
+    private static int chunkY(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Set the RuleSet which will be used when transforming from one
+     * generation to the next.  Rules in which empty space comes to life
+     * (B0) would fill the whole plane, so they aren't allowed here.
+     *
+     * @param rs        The RuleSet to use when transforming
+     */
+    public void setRuleSet(RuleSet rs) {
+        if (rs != null && (rs.mBornMask & 1) != 0) {
+            throw new IllegalArgumentException("An unbounded universe can't run B0 rules: " + rs.getName());
+        }
+        mRuleSet = rs;
+    }
+
+    /**
+     * Return the current rule set used for transforms.
+     *
+     * @return  The current rule set.
+     */
+    public RuleSet getRuleSet() {
+        return mRuleSet;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Automata, a Cellular Automata explorer.
+ *
+ * Copyright (c) 2003, Seth J. Morabito <sethm@loomcom.com> All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See  the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.loomcom.automata;
+
+/**
+ * Tells the observers of a <tt>CellModel</tt> that the field has settled
+ * down: everything has died, nothing changes any more, or the same
+ * generations keep coming round again.  It is passed as the argument of
+ * <tt>notifyObservers()</tt>, once, when the model first notices.
+ */
+public class StabilityEvent {
+    /**
+     * The ways a field can settle.
+     */
+    public enum Kind {
+        /** Every cell is dead. */
+        EXTINCT,
+        /** Nothing changes from one generation to the next. */
+        STILL_LIFE,
+        /** The field repeats every <tt>getPeriod()</tt> generations. */
+        OSCILLATOR
+    }
+
+    private final Kind mKind;
+    private final int mPeriod;
+    private final int mGeneration;
+
+    StabilityEvent(Kind kind, int period, int generation) {
+        mKind = kind;
+        mPeriod = period;
+        mGeneration = generation;
+    }
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * The number of generations before the field repeats: 1 for an
+     * extinct field or a still life.
+     */
+    public int getPeriod() {
+        return mPeriod;
+    }
+
+    /**
+     * The generation in which the repetition was noticed.  The field has
+     * been repeating since <tt>getGeneration() - getPeriod()</tt>, if not
+     * earlier.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    @Override
+    public String toString() {
+        switch (mKind) {
+            case EXTINCT:
+                return "extinct at generation " + mGeneration;
+            case STILL_LIFE:
+                return "still at generation " + mGeneration;
+            default:
+                return "period " + mPeriod + " at generation " + mGeneration;
+        }
+    }
+}
@@ -21,10 +21,18 @@ public class UIStrings {
 
     public static final String DIALOG_ABOUT_TITLE = "dialog.about.title";
     public static final String DIALOG_COLOR_TITLE = "dialog.color.title";
+    public static final String DIALOG_OPEN_TITLE = "dialog.open.title";
+    public static final String DIALOG_SAVE_TITLE = "dialog.save.title";
 
     public static final String ERROR_TEXT_DIMENSIONS_SMALL = "error.text.dimensions.small";
     public static final String ERROR_TEXT_DIMENSIONS_LARGE = "error.text.dimensions.large";
     public static final String ERROR_NUMBERS_ONLY = "error.text.numbersOnly";
+    public static final String ERROR_TEXT_PATTERN_READ = "error.text.pattern.read";
+    public static final String ERROR_TEXT_PATTERN_WRITE = "error.text.pattern.write";
+
+    public static final String FILTER_LIFE106 = "filter.life106";
+    public static final String FILTER_PLAINTEXT = "filter.plaintext";
+    public static final String FILTER_RLE = "filter.rle";
 
     public static final String LABEL_BACKGROUND = "label.background";
     public static final String LABEL_CELLSIZE = "label.cellSize";
@@ -37,6 +45,8 @@ public class UIStrings {
 
     public static final String MENU_GLIDER = "menu.glider";
 
+    public static final String SPEED_MAX = "speed.max";
+
     public static final String WINDOW_SETUP_TITLE = "window.setup.title";
     public static final String WINDOW_SIM_TITLE = "window.sim.title";
 